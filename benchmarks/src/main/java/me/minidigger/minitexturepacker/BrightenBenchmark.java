@@ -0,0 +1,60 @@
+package me.minidigger.minitexturepacker;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// decode, brighten and encode a single png, what the packer does for every texture a transform rule matches
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class BrightenBenchmark {
+
+    @Param({"16", "64", "256", "1024"})
+    int size;
+    // how the source png is stored, ImageIO hands back a different BufferedImage type for each
+    @Param({"argb", "rgb", "gray", "indexed"})
+    String colorModel;
+    // 0 encodes with ImageIO, anything else with PngOptimizer at that level
+    @Param({"0", "6"})
+    int optimize;
+
+    private byte[] png;
+    private TransformChain chain;
+    private PngOptimizer optimizer;
+
+    @Setup
+    public void setup() throws IOException {
+        int type = switch (colorModel) {
+            case "argb" -> BufferedImage.TYPE_INT_ARGB;
+            case "rgb" -> BufferedImage.TYPE_INT_RGB;
+            case "gray" -> BufferedImage.TYPE_BYTE_GRAY;
+            case "indexed" -> BufferedImage.TYPE_BYTE_INDEXED;
+            default -> throw new IllegalArgumentException("Unknown color model " + colorModel);
+        };
+        png = Fixtures.png(Fixtures.image(size, size, type, new Random(size)));
+        chain = new TransformChain(List.of(new ImageTransform.Brighten(1.2f)));
+        optimizer = optimize > 0 ? new PngOptimizer(optimize) : null;
+    }
+
+    @Benchmark
+    public byte[] brighten() throws IOException {
+        return Util.transform(png, chain, optimizer);
+    }
+}
@@ -0,0 +1,67 @@
+package me.minidigger.minitexturepacker;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// a whole MiniTexturePacker.patch run over a generated tree: scanning, overlaying and copying into an output folder
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CopyBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    int files;
+    // 1 only copies, anything else brightens every block texture on top
+    @Param({"1", "1.2"})
+    float brighten;
+    // with an up to date manifest there is nothing left to copy, that measures the checks alone
+    @Param({"false", "true"})
+    boolean incremental;
+
+    private Path tree;
+    private Path temp;
+    private Path output;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        tree = Fixtures.tree(files);
+        temp = Files.createTempDirectory("copy-benchmark");
+        output = temp.resolve("output");
+        Fixtures.quiet();
+        if (incremental) {
+            // the first build writes the manifest, every measured one finds it up to date
+            patch();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Util.deleteDir(temp);
+    }
+
+    @Benchmark
+    public Path patch() {
+        MiniTexturePacker packer = new MiniTexturePacker(tree.resolve("original"), tree.resolve("patch"), new DirectoryOutput(output));
+        packer.setIncremental(incremental);
+        packer.patch(brighten);
+        return output;
+    }
+}
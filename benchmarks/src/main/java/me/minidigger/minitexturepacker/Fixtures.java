@@ -0,0 +1,251 @@
+package me.minidigger.minitexturepacker;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+// Builds the synthetic packs the benchmarks run on. Everything comes from a fixed seed, so the same parameters always
+// give the same files and runs stay comparable. Fixtures are generated once into fixtures.dir (target/fixtures by
+// default) and reused, a fixture counts as done once its .done marker exists.
+//
+// java -cp target/benchmarks.jar me.minidigger.minitexturepacker.Fixtures tree 10000
+// java -cp target/benchmarks.jar me.minidigger.minitexturepacker.Fixtures mappings 10000
+// java -cp target/benchmarks.jar me.minidigger.minitexturepacker.Fixtures lang 120
+public class Fixtures {
+
+    static final String NAMESPACE = "bench";
+    private static final long SEED = 0x4D54504BL;
+    // the pngs of a tree are picked from this many distinct images, encoding every single one would take longer than the benchmark
+    private static final int DISTINCT_IMAGES = 64;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: Fixtures <tree|mappings|lang> <size>");
+            return;
+        }
+        int size = Integer.parseInt(args[1]);
+        Path dir = switch (args[0]) {
+            case "tree" -> tree(size);
+            case "mappings" -> mappings(size);
+            case "lang" -> lang(size);
+            default -> throw new IllegalArgumentException("Unknown fixture " + args[0]);
+        };
+        System.out.println("Fixture is in " + dir);
+    }
+
+    static Path root() {
+        return Path.of(System.getProperty("fixtures.dir", "target/fixtures"));
+    }
+
+    // the stages print a line for almost everything they do, that is not what we want to measure
+    static void quiet() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    // original and patch with size files in original, spread over the folders the packer copies like a real pack.
+    // Patch replaces every 10th file, removes every 100th and has a namespace with a tenth of the files on top
+    static Path tree(int size) throws IOException {
+        Path dir = root().resolve("tree-" + size);
+        if (done(dir)) {
+            return dir;
+        }
+        Random random = new Random(SEED);
+        List<byte[]> images = images(random);
+        Path original = dir.resolve("original");
+        Path patch = dir.resolve("patch");
+        write(original.resolve("pack.mcmeta"), "{\"pack\": {\"pack_format\": 7, \"description\": \"original\"}}");
+        write(patch.resolve("pack.mcmeta"), "{\"pack\": {\"pack_format\": 7, \"description\": \"patched\"}}");
+        for (int i = 0; i < size; i++) {
+            String name = assetName("minecraft", i);
+            byte[] data = asset(name, i, random, images);
+            write(original.resolve(name), data);
+            if (i % 100 == 0) {
+                write(patch.resolve(name), new byte[0]);
+            } else if (i % 10 == 0) {
+                write(patch.resolve(name), asset(name, i + size, random, images));
+            }
+        }
+        for (int i = 0; i < size / 10; i++) {
+            String name = assetName(NAMESPACE, i);
+            write(patch.resolve(name), asset(name, i, random, images));
+        }
+        return finish(dir);
+    }
+
+    // 6 in 10 textures, 2 models, 1 blockstate, 1 sound, in folders of 100 files
+    private static String assetName(String namespace, int i) {
+        String folder = "group" + i / 100;
+        return switch (i % 10) {
+            case 0, 1, 2, 3, 4, 5 -> "assets/" + namespace + "/textures/" + (i % 2 == 0 ? "blocks/" : "item/") + folder + "/t" + i + ".png";
+            case 6, 7 -> "assets/" + namespace + "/models/block/" + folder + "/m" + i + ".json";
+            case 8 -> "assets/" + namespace + "/blockstates/" + folder + "/b" + i + ".json";
+            default -> "assets/" + namespace + "/sounds/" + folder + "/s" + i + ".ogg";
+        };
+    }
+
+    private static byte[] asset(String name, int i, Random random, List<byte[]> images) {
+        if (name.endsWith(".png")) {
+            return images.get(random.nextInt(images.size()));
+        }
+        if (name.endsWith(".ogg")) {
+            byte[] data = new byte[2048 + random.nextInt(8192)];
+            random.nextBytes(data);
+            return data;
+        }
+        if (name.contains("/blockstates/")) {
+            return ("{\n  \"variants\": {\n    \"\": { \"model\": \"block/m" + i + "\" }\n  }\n}\n").getBytes(StandardCharsets.UTF_8);
+        }
+        return model("minecraft:block/t" + i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String model(String texture) {
+        return "{\n  \"parent\": \"block/cube_all\",\n  \"textures\": {\n    \"all\": \"" + texture + "\"\n  }\n}\n";
+    }
+
+    private static List<byte[]> images(Random random) throws IOException {
+        List<byte[]> images = new ArrayList<>();
+        for (int i = 0; i < DISTINCT_IMAGES; i++) {
+            int size = i % 8 == 0 ? 64 : 16;
+            images.add(png(image(size, size, BufferedImage.TYPE_INT_ARGB, random)));
+        }
+        return images;
+    }
+
+    // noise over a gradient, compresses about as well as real textures do
+    static BufferedImage image(int width, int height, int type, Random random) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = (x * 255 / width + random.nextInt(16)) & 0xFF;
+                int g = (y * 255 / height + random.nextInt(16)) & 0xFF;
+                int b = ((x + y) * 127 / (width + height) + random.nextInt(16)) & 0xFF;
+                int a = (x + y) % 7 == 0 ? 0x80 : 0xFF;
+                image.setRGB(x, y, a << 24 | r << 16 | g << 8 | b);
+            }
+        }
+        return image;
+    }
+
+    static byte[] png(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    // a patch with size models in the namespace, every 20th one a bow with pull stages, and a template for the
+    // default type. There is no mappings.csv, every model gets a new id on the first run
+    static Path mappings(int size) throws IOException {
+        Path dir = root().resolve("mappings-" + size);
+        if (done(dir)) {
+            return dir;
+        }
+        Path patch = dir.resolve("patch");
+        for (int i = 0; i < size; i++) {
+            Path models = patch.resolve("assets/" + NAMESPACE + "/models/item/group" + i / 100);
+            if (i % 20 == 0) {
+                write(models.resolve("bow" + i + ".bow.json"), model(NAMESPACE + ":item/bow" + i));
+                for (String pull : new String[]{"0", "65", "90"}) {
+                    write(models.resolve("bow" + i + ".bow." + pull + ".json"), model(NAMESPACE + ":item/bow" + i + "_" + pull));
+                }
+            } else {
+                write(models.resolve("model" + i + ".json"), model(NAMESPACE + ":item/model" + i));
+            }
+        }
+        write(patch.resolve("assets/minecraft/models/item/diamond_sword.json"), """
+                {
+                  "parent": "item/handheld",
+                  "textures": {
+                    "layer0": "item/diamond_sword"
+                  },
+                  "overrides": [
+                    %mini_model_creator_marker%
+                  ]
+                }
+                """);
+        return finish(dir);
+    }
+
+    // original with locales lang files of 2000 keys each, an asset index listing them and lang.json plus a per
+    // locale file for every 10th locale in patch
+    static Path lang(int locales) throws IOException {
+        Path dir = root().resolve("lang-" + locales);
+        if (done(dir)) {
+            return dir;
+        }
+        Random random = new Random(SEED);
+        StringBuilder index = new StringBuilder("{\"objects\": {");
+        for (int l = 0; l < locales; l++) {
+            String locale = "l" + l + "_bench";
+            StringBuilder lang = new StringBuilder("{\n");
+            for (int k = 0; k < 2000; k++) {
+                lang.append("  \"key.").append(k).append("\": \"").append(word(random)).append(' ').append(word(random)).append("\",\n");
+            }
+            lang.append("  \"last\": \"").append(locale).append("\"\n}\n");
+            write(dir.resolve("original/assets/minecraft/lang/" + locale + ".json"), lang.toString());
+            index.append(l > 0 ? "," : "").append("\"minecraft/lang/").append(locale).append(".json\": {\"hash\": \"00\", \"size\": 0}");
+            if (l % 10 == 0) {
+                write(dir.resolve("patch/lang/" + locale + ".json"), "{\"custom.only." + l + "\": \"" + word(random) + "\"}");
+            }
+        }
+        index.append("}}");
+        byte[] indexData = index.toString().getBytes(StandardCharsets.UTF_8);
+        write(dir.resolve("asset-index/bench.json"), indexData);
+        write(dir.resolve("asset-index/bench.json.sha1"), HexFormat.of().formatHex(Util.sha1().digest(indexData)));
+        StringBuilder injections = new StringBuilder("{\n");
+        for (int k = 0; k < 200; k++) {
+            injections.append("  \"custom.").append(k).append("\": \"").append(word(random)).append("\",\n");
+        }
+        injections.append("  \"key.0\": \"overridden\"\n}\n");
+        write(dir.resolve("patch/lang.json"), injections.toString());
+        return finish(dir);
+    }
+
+    private static String word(Random random) {
+        char[] word = new char[3 + random.nextInt(8)];
+        for (int i = 0; i < word.length; i++) {
+            word[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(word);
+    }
+
+    // a copy of the lang files of original in output, like the packer would have left them
+    static void copyLang(Path original, PackOutput output) {
+        Path lang = original.resolve("assets/minecraft/lang");
+        try (var files = Files.list(lang)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                output.copy(file, "assets/minecraft/lang/" + file.getFileName());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static boolean done(Path dir) {
+        return Files.exists(dir.resolve(".done"));
+    }
+
+    private static Path finish(Path dir) throws IOException {
+        Files.writeString(dir.resolve(".done"), "");
+        return dir;
+    }
+
+    private static void write(Path file, String data) throws IOException {
+        write(file, data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void write(Path file, byte[] data) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, data);
+    }
+}
@@ -0,0 +1,51 @@
+package me.minidigger.minitexturepacker;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// MiniLanguageHandler.process: reading every lang file the packer left in output, merging lang.json and the per
+// locale files in and writing them back, all in memory
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class LangBenchmark {
+
+    @Param({"1", "10", "120"})
+    int locales;
+
+    private Path dir;
+    private AssetIndex assetIndex;
+    private Path target;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Fixtures.lang(locales);
+        assetIndex = new AssetIndex(AssetIndex.defaultFile(dir, "bench"), "bench");
+        target = Files.createTempDirectory("lang-benchmark");
+        Fixtures.quiet();
+    }
+
+    @Benchmark
+    public PackOutput merge() {
+        PackOutput output = new MemoryOutput(new DirectoryOutput(target));
+        Fixtures.copyLang(dir.resolve("original"), output);
+        new MiniLanguageHandler(dir.resolve("original"), dir.resolve("patch"), output, assetIndex).process();
+        return output;
+    }
+}
@@ -0,0 +1,71 @@
+package me.minidigger.minitexturepacker;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// MiniModelCreator.process: scanning the models, assigning ids, writing mappings.csv/.bin and the item models with
+// all their overrides. The item models go to memory so the disk only sees the mapping files
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class MappingBenchmark {
+
+    @Param({"1000", "10000", "50000"})
+    int models;
+    // fresh assigns an id to every model, existing loads them all from mappings.csv
+    @Param({"fresh", "existing"})
+    String mappings;
+
+    private Path patch;
+    private Path outputDir;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        patch = Fixtures.mappings(models).resolve("patch");
+        outputDir = Files.createTempDirectory("mapping-benchmark");
+        Fixtures.quiet();
+        Files.deleteIfExists(patch.resolve("mappings.csv"));
+        if (mappings.equals("existing")) {
+            process();
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void reset() throws IOException {
+        if (mappings.equals("fresh")) {
+            Files.deleteIfExists(patch.resolve("mappings.csv"));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Util.deleteDir(outputDir);
+    }
+
+    @Benchmark
+    public PackOutput process() {
+        // never closed, that would write the item models to disk
+        PackOutput output = new MemoryOutput(new DirectoryOutput(outputDir));
+        new MiniModelCreator(patch, output, Fixtures.NAMESPACE, Map.of("default", "diamond_sword", "bow", "bow")).process();
+        return output;
+    }
+}
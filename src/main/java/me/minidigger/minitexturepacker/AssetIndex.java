@@ -0,0 +1,86 @@
+package me.minidigger.minitexturepacker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+// Mojang's asset index for a game version, kept next to the pack so builds never have to go online.
+// It is only downloaded when asked to and checked against its SHA-1 every time it is read.
+class AssetIndex {
+
+    private record Remote(String url, String sha1) {
+    }
+
+    // the hash is part of the url, launchermeta names its packages after them
+    private static final Map<String, Remote> KNOWN = Map.of(
+            "1.17", new Remote("https://launchermeta.mojang.com/v1/packages/e5af543d9b3ce1c063a97842c38e50e29f961f00/1.17.json", "e5af543d9b3ce1c063a97842c38e50e29f961f00")
+    );
+
+    private final Path file;
+    private final String version;
+
+    AssetIndex(Path file, String version) {
+        this.file = file;
+        this.version = version;
+    }
+
+    static Path defaultFile(Path mainDir, String version) {
+        return mainDir.resolve("asset-index").resolve(version + ".json");
+    }
+
+    private Path hashFile() {
+        return file.resolveSibling(file.getFileName() + ".sha1");
+    }
+
+    void refresh() throws IOException {
+        Remote remote = KNOWN.get(version);
+        if (remote == null) {
+            throw new IOException("Don't know where to download the asset index for " + version + " from, supported are " + KNOWN.keySet());
+        }
+        byte[] data;
+        try (InputStream is = new URL(remote.url()).openStream()) {
+            data = is.readAllBytes();
+        }
+        String hash = sha1(data);
+        if (!hash.equals(remote.sha1())) {
+            throw new IOException("Downloaded asset index has hash " + hash + ", expected " + remote.sha1());
+        }
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Files.write(file, data);
+        Files.writeString(hashFile(), hash);
+    }
+
+    // null if there is no index or it doesn't match its hash
+    Set<String> locales(PrintStream log) throws IOException, JSONException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        byte[] data = Files.readAllBytes(file);
+        String expected = KNOWN.containsKey(version) ? KNOWN.get(version).sha1()
+                : Files.isRegularFile(hashFile()) ? Files.readString(hashFile()).trim() : null;
+        if (expected != null && !expected.equals(sha1(data))) {
+            log.println("Asset index " + file + " doesn't match its hash " + expected + ", ignoring it");
+            return null;
+        }
+        return new JSONObject(new String(data, StandardCharsets.UTF_8)).getJSONObject("objects")
+                .keySet()
+                .stream()
+                .filter(k -> k.startsWith("minecraft/lang/"))
+                .map(k -> k.replace("minecraft/lang/", "").replace(".json", ""))
+                .collect(Collectors.toSet());
+    }
+
+    private static String sha1(byte[] data) {
+        return HexFormat.of().formatHex(Util.sha1().digest(data));
+    }
+}
@@ -0,0 +1,135 @@
+package me.minidigger.minitexturepacker;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+// Brightens (or whatever the table says) images in place by running every color sample through a 256 entry lookup
+// table, alpha is left alone. Replaces RescaleOp, which allocated a new image per call and fell over on anything but
+// 3 or 4 band images.
+class BrightenKernel {
+
+    private static final ThreadLocal<int[]> ROW = ThreadLocal.withInitial(() -> new int[1024]);
+
+    private BrightenKernel() {
+    }
+
+    // returns the brightened image, which is either image itself or a new image sharing its pixels
+    static BufferedImage apply(BufferedImage image, int[] table) {
+        ColorModel colorModel = image.getColorModel();
+        if (colorModel.isAlphaPremultiplied()) {
+            image.coerceData(false);
+        }
+        WritableRaster raster = image.getRaster();
+        if (colorModel instanceof IndexColorModel indexed) {
+            // only the palette needs to change, the pixels stay as they are
+            return new BufferedImage(brightenPalette(indexed, table), raster, false, null);
+        }
+        DataBuffer buffer = raster.getDataBuffer();
+        if (buffer instanceof DataBufferInt ints && colorModel instanceof DirectColorModel direct
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel packed) {
+            brightenPacked(ints, direct, packed, raster, table);
+        } else if (buffer instanceof DataBufferByte bytes && colorModel instanceof ComponentColorModel
+                && raster.getSampleModel() instanceof PixelInterleavedSampleModel interleaved) {
+            brightenInterleaved(bytes, colorModel, interleaved, raster, table);
+        } else {
+            brightenGeneric(raster, colorModel, table);
+        }
+        return image;
+    }
+
+    private static IndexColorModel brightenPalette(IndexColorModel model, int[] table) {
+        int size = model.getMapSize();
+        byte[] r = new byte[size];
+        byte[] g = new byte[size];
+        byte[] b = new byte[size];
+        byte[] a = new byte[size];
+        model.getReds(r);
+        model.getGreens(g);
+        model.getBlues(b);
+        model.getAlphas(a);
+        for (int i = 0; i < size; i++) {
+            r[i] = (byte) table[r[i] & 0xFF];
+            g[i] = (byte) table[g[i] & 0xFF];
+            b[i] = (byte) table[b[i] & 0xFF];
+        }
+        return new IndexColorModel(model.getPixelSize(), size, r, g, b, a);
+    }
+
+    private static void brightenPacked(DataBufferInt buffer, DirectColorModel model, SinglePixelPackedSampleModel sampleModel, WritableRaster raster, int[] table) {
+        int[] data = buffer.getData();
+        int[] masks = {model.getRedMask(), model.getGreenMask(), model.getBlueMask()};
+        int[] shifts = new int[3];
+        for (int c = 0; c < 3; c++) {
+            shifts[c] = Integer.numberOfTrailingZeros(masks[c]);
+            if (Integer.bitCount(masks[c]) != 8) {
+                brightenGeneric(raster, model, table);
+                return;
+            }
+        }
+        int keep = ~(masks[0] | masks[1] | masks[2]);
+        int stride = sampleModel.getScanlineStride();
+        int base = buffer.getOffset() - raster.getSampleModelTranslateY() * stride - raster.getSampleModelTranslateX();
+        for (int y = 0; y < raster.getHeight(); y++) {
+            int row = base + y * stride;
+            for (int x = 0; x < raster.getWidth(); x++) {
+                int pixel = data[row + x];
+                int result = pixel & keep;
+                for (int c = 0; c < 3; c++) {
+                    result |= table[(pixel & masks[c]) >>> shifts[c]] << shifts[c];
+                }
+                data[row + x] = result;
+            }
+        }
+    }
+
+    private static void brightenInterleaved(DataBufferByte buffer, ColorModel model, PixelInterleavedSampleModel sampleModel, WritableRaster raster, int[] table) {
+        byte[] data = buffer.getData();
+        int[] offsets = sampleModel.getBandOffsets();
+        int colors = model.getNumColorComponents();
+        int pixelStride = sampleModel.getPixelStride();
+        int stride = sampleModel.getScanlineStride();
+        int base = buffer.getOffset() - raster.getSampleModelTranslateY() * stride - raster.getSampleModelTranslateX() * pixelStride;
+        for (int y = 0; y < raster.getHeight(); y++) {
+            int row = base + y * stride;
+            for (int x = 0; x < raster.getWidth(); x++) {
+                int pixel = row + x * pixelStride;
+                // alpha is always the last component of a ComponentColorModel
+                for (int c = 0; c < colors; c++) {
+                    int index = pixel + offsets[c];
+                    data[index] = (byte) table[data[index] & 0xFF];
+                }
+            }
+        }
+    }
+
+    // 16 bit pngs and whatever else ImageIO comes up with, goes through the raster one row at a time
+    // and looks up the sample as if it had 8 bits
+    private static void brightenGeneric(WritableRaster raster, ColorModel model, int[] table) {
+        int colors = model.getNumColorComponents();
+        int width = raster.getWidth();
+        for (int c = 0; c < colors; c++) {
+            int max = (1 << model.getComponentSize(c)) - 1;
+            int[] row = ROW.get();
+            if (row.length < width) {
+                row = new int[width];
+                ROW.set(row);
+            }
+            for (int y = 0; y < raster.getHeight(); y++) {
+                raster.getSamples(raster.getMinX(), raster.getMinY() + y, width, 1, c, row);
+                for (int x = 0; x < width; x++) {
+                    row[x] = max == 255 ? table[row[x]] : (int) ((long) table[(int) ((long) row[x] * 255 / max)] * max / 255);
+                }
+                raster.setSamples(raster.getMinX(), raster.getMinY() + y, width, 1, c, row);
+            }
+        }
+    }
+}
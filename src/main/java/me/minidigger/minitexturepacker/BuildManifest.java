@@ -0,0 +1,112 @@
+package me.minidigger.minitexturepacker;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+class BuildManifest {
+
+    record Entry(String source, long size, long mtime, String hash, String transform, long outputSize, long outputMtime, String outputHash) {
+        String line(String output) {
+            // output, source, size, mtime, hash, transform, outputSize, outputMtime, outputHash
+            return output + "\t" + source() + "\t" + size() + "\t" + mtime() + "\t" + hash() + "\t" + transform() + "\t" + outputSize() + "\t" + outputMtime() + "\t" + outputHash();
+        }
+    }
+
+    private static final int VERSION = 2;
+
+    private final String config;
+    private final Map<String, Entry> previous;
+    private final Map<String, Entry> current = new ConcurrentHashMap<>();
+
+    private BuildManifest(String config, Map<String, Entry> previous) {
+        this.config = config;
+        this.previous = previous;
+    }
+
+    static String config(ImageTransforms transforms, List<String> namespaces) {
+        return "version=" + VERSION + ";transforms=" + Util.sha1(transforms.describe()) + ";namespaces=" + String.join("|", namespaces);
+    }
+
+    static BuildManifest empty(String config) {
+        return new BuildManifest(config, Map.of());
+    }
+
+    // returns null if there is no manifest or it was written for a different config, callers need to do a clean build then
+    static BuildManifest load(Path file, String config, PrintStream log) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            List<String> lines = Files.readAllLines(file);
+            if (lines.isEmpty() || !lines.get(0).equals("#" + config)) {
+                return null;
+            }
+            Map<String, Entry> entries = new TreeMap<>();
+            for (String line : lines.subList(1, lines.size())) {
+                String[] s = line.split("\t");
+                entries.put(s[0], new Entry(s[1], Long.parseLong(s[2]), Long.parseLong(s[3]), s[4], s[5], Long.parseLong(s[6]), Long.parseLong(s[7]), s[8]));
+            }
+            return new BuildManifest(config, entries);
+        } catch (IOException | RuntimeException e) {
+            log.println("Error while loading manifest " + file + ": " + e.getClass().getName() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // checks if output is still what we would produce from source, carries the entry over into the new manifest if so
+    boolean isUpToDate(String output, Path source, long size, long mtime, Path outputFile, String transform) throws IOException {
+        Entry old = previous.get(output);
+        if (old == null || !old.transform().equals(transform) || old.size() != size || !old.source().equals(source.toString())) {
+            return false;
+        }
+        if (!Files.isRegularFile(outputFile) || Files.size(outputFile) != old.outputSize()) {
+            return false;
+        }
+        // edited by hand since the last build? The hash tells if it is still what we wrote
+        long outputMtime = Files.getLastModifiedTime(outputFile).toMillis();
+        if (outputMtime != old.outputMtime() && !Util.sha1(outputFile).equals(old.outputHash())) {
+            return false;
+        }
+        // touched but maybe not changed, the hash decides
+        if (mtime != old.mtime() && !Util.sha1(source).equals(old.hash())) {
+            return false;
+        }
+        current.put(output, new Entry(old.source(), size, mtime, old.hash(), transform, old.outputSize(), outputMtime, old.outputHash()));
+        return true;
+    }
+
+    void record(String output, Path source, long size, long mtime, Path outputFile, String transform) throws IOException {
+        String hash = Util.sha1(source);
+        long outputSize = Files.size(outputFile);
+        String outputHash = outputSize == size && transform.isEmpty() ? hash : Util.sha1(outputFile);
+        current.put(output, new Entry(source.toString(), size, mtime, hash, transform, outputSize, Files.getLastModifiedTime(outputFile).toMillis(), outputHash));
+    }
+
+    // for watch mode, the output is gone or about to be copied again
+    void forget(String output) {
+        current.remove(output);
+    }
+
+    // outputs we produced last time but not this time, their sources are gone
+    Set<String> staleOutputs() {
+        Set<String> stale = new HashSet<>(previous.keySet());
+        stale.removeAll(current.keySet());
+        return stale;
+    }
+
+    void save(Path file) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file))) {
+            writer.println("#" + config);
+            new TreeMap<>(current).forEach((output, entry) -> writer.println(entry.line(output)));
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package me.minidigger.minitexturepacker;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+// What a build did and how long it took: wall time and counters per stage, and for the packer files, bytes and time
+// per asset folder. The copy threads all add to the same counters, so everything in here is thread safe.
+// Folder times are the time the copy threads spent on files of that folder, they run in parallel so they add up to
+// more than the wall time of the stage.
+public class BuildMetrics {
+
+    static final String FILES = "files";
+    static final String BYTES_READ = "bytesRead";
+    static final String BYTES_WRITTEN = "bytesWritten";
+    static final String BUSY_NANOS = "busyNanos";
+    static final String ERRORS = "errors";
+
+    private static class Stage {
+        private final String name;
+        private final long start = System.nanoTime();
+        private volatile long millis = -1;
+        private final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+        private final Map<String, Map<String, LongAdder>> folders = new ConcurrentSkipListMap<>();
+
+        private Stage(String name) {
+            this.name = name;
+        }
+
+        void finish() {
+            millis = (System.nanoTime() - start) / 1_000_000;
+        }
+    }
+
+    private final List<Stage> stages = new CopyOnWriteArrayList<>();
+    private volatile Instant started = Instant.now();
+    // stages run at the same time, so this is less than what they add up to
+    private volatile long wallMillis = -1;
+
+    // runs the task as a stage with that name
+    void time(String name, Runnable task) {
+        Stage stage = start(name);
+        try {
+            task.run();
+        } finally {
+            stage.finish();
+        }
+    }
+
+    void add(String stage, String counter, long amount) {
+        add(stage(stage, true).counters, counter, amount);
+    }
+
+    void add(String stage, String folder, String counter, long amount) {
+        add(stage(stage, true).folders.computeIfAbsent(folder, k -> new ConcurrentSkipListMap<>()), counter, amount);
+    }
+
+    private static void add(Map<String, LongAdder> counters, String counter, long amount) {
+        counters.computeIfAbsent(counter, k -> new LongAdder()).add(amount);
+    }
+
+    // the latest stage with that name, counters of a stage nobody timed still have to go somewhere
+    private Stage stage(String name, boolean create) {
+        for (int i = stages.size() - 1; i >= 0; i--) {
+            if (stages.get(i).name.equals(name)) {
+                return stages.get(i);
+            }
+        }
+        if (!create) {
+            return null;
+        }
+        synchronized (stages) {
+            Stage stage = stage(name, false);
+            return stage != null ? stage : start(name);
+        }
+    }
+
+    private Stage start(String name) {
+        Stage stage = new Stage(name);
+        stages.add(stage);
+        return stage;
+    }
+
+    // for watch mode, every rebuild gets its own report
+    void reset() {
+        stages.clear();
+        started = Instant.now();
+        wallMillis = -1;
+    }
+
+    void setWallMillis(long wallMillis) {
+        this.wallMillis = wallMillis;
+    }
+
+    void write(Path file) {
+        System.out.print("Writing build report... ");
+        try {
+            StringWriter out = new StringWriter();
+            JsonWriter writer = new JsonWriter(out, false);
+            writer.beginObject()
+                    .name("started").value(started.toString())
+                    .name("totalMillis").value(stages.stream().mapToLong(s -> Math.max(0, s.millis)).sum())
+                    .name("wallMillis").value(wallMillis)
+                    .name("stages").beginArray();
+            for (Stage stage : stages) {
+                writer.beginObject()
+                        .name("name").value(stage.name)
+                        .name("millis").value(stage.millis);
+                writeCounters(writer.name("counters"), stage.counters);
+                writer.name("folders").beginObject();
+                for (Map.Entry<String, Map<String, LongAdder>> folder : stage.folders.entrySet()) {
+                    writeCounters(writer.name(folder.getKey()), folder.getValue());
+                }
+                writer.endObject().endObject();
+            }
+            writer.endArray().endObject();
+            Files.writeString(file, out.toString());
+            System.out.println("Done!");
+        } catch (IOException e) {
+            System.out.println("Error while writing build report: " + e.getClass().getName() + ": " + e.getMessage());
+        }
+    }
+
+    private static void writeCounters(JsonWriter writer, Map<String, LongAdder> counters) throws IOException {
+        writer.beginObject();
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            writer.name(counter.getKey()).value(counter.getValue().sum());
+        }
+        writer.endObject();
+    }
+
+    void printSummary() {
+        System.out.println(String.format("%-22s %9s  %s", "stage", "ms", "counters"));
+        for (Stage stage : stages) {
+            StringBuilder counters = new StringBuilder();
+            stage.counters.forEach((name, value) -> counters.append(name).append('=').append(value.sum()).append(' '));
+            System.out.println(String.format("%-22s %9d  %s", stage.name, stage.millis, counters.toString().trim()));
+            if (!stage.folders.isEmpty()) {
+                System.out.println(String.format("  %-20s %9s %9s %12s %12s %7s", "folder", "busy ms", FILES, "read KiB", "written KiB", ERRORS));
+            }
+            stage.folders.forEach((folder, values) -> System.out.println(String.format("  %-20s %9d %9d %12d %12d %7d", folder,
+                    get(values, BUSY_NANOS) / 1_000_000, get(values, FILES), get(values, BYTES_READ) / 1024, get(values, BYTES_WRITTEN) / 1024, get(values, ERRORS))));
+        }
+        if (wallMillis >= 0) {
+            System.out.println(String.format("%-22s %9d  %s", "wall time", wallMillis, "stages added up " + stages.stream().mapToLong(s -> Math.max(0, s.millis)).sum() + " ms"));
+        }
+    }
+
+    private static long get(Map<String, LongAdder> counters, String counter) {
+        LongAdder value = counters.get(counter);
+        return value != null ? value.sum() : 0;
+    }
+}
@@ -0,0 +1,96 @@
+package me.minidigger.minitexturepacker;
+
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class CopyScheduler implements AutoCloseable {
+
+    // how many tasks per thread may be queued before submit blocks
+    private static final int QUEUE_FACTOR = 4;
+
+    private final ExecutorService io;
+    private final ForkJoinPool cpu;
+    private final Semaphore ioPermits;
+    private final Semaphore cpuPermits;
+    private final Phaser phaser = new Phaser(1);
+    private final AtomicInteger errors = new AtomicInteger();
+    private final PrintStream log;
+
+    CopyScheduler(int threads, PrintStream log) {
+        this.log = log;
+        int ioThreads = Math.max(1, Math.min(threads, 1024));
+        int cpuThreads = Math.max(1, Math.min(ioThreads, Runtime.getRuntime().availableProcessors()));
+        this.io = Executors.newFixedThreadPool(ioThreads, threadFactory("copy-io-"));
+        this.cpu = new ForkJoinPool(cpuThreads);
+        this.ioPermits = new Semaphore(ioThreads * QUEUE_FACTOR);
+        this.cpuPermits = new Semaphore(cpuThreads * QUEUE_FACTOR);
+    }
+
+    // plain file copies, these spend their time waiting on the disk
+    void submitIo(Runnable task) {
+        submit(io, ioPermits, task);
+    }
+
+    // image decoding and brightening, never more of these than we have cores
+    void submitCpu(Runnable task) {
+        submit(cpu, cpuPermits, task);
+    }
+
+    private void submit(ExecutorService executor, Semaphore permits, Runnable task) {
+        // blocks the caller if the workers can't keep up, so we never queue the whole pack at once
+        permits.acquireUninterruptibly();
+        phaser.register();
+        executor.execute(() -> {
+            try {
+                task.run();
+            } catch (UncheckedIOException e) {
+                // the task printed what went wrong already
+                errors.incrementAndGet();
+            } catch (RuntimeException e) {
+                errors.incrementAndGet();
+                log.println("Error while running copy task: " + e.getClass().getName() + ": " + e.getMessage());
+            } finally {
+                permits.release();
+                phaser.arriveAndDeregister();
+            }
+        });
+    }
+
+    // waits until every task submitted so far is done
+    void await() {
+        phaser.arriveAndAwaitAdvance();
+    }
+
+    int errors() {
+        return errors.get();
+    }
+
+    @Override
+    public void close() {
+        io.shutdown();
+        cpu.shutdown();
+        try {
+            io.awaitTermination(1, TimeUnit.MINUTES);
+            cpu.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
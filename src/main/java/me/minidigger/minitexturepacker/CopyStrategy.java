@@ -0,0 +1,13 @@
+package me.minidigger.minitexturepacker;
+
+// How DirectoryOutput puts files that are shipped as they are into the output folder. Each one falls back to the
+// next when it can't be used for a file, e.g. hardlinks across file systems or out of a zip.
+//   HARDLINK  the copy is just another name for the same file, output then shares it with original or patch
+//   TRANSFER  FileChannel.transferTo, lets the kernel move the bytes without them passing through the heap
+//   COPY      Files.copy
+// A reflink (copy on write clone) would be the best of both, but Java has no way to ask for one.
+public enum CopyStrategy {
+    HARDLINK,
+    TRANSFER,
+    COPY
+}
@@ -0,0 +1,166 @@
+package me.minidigger.minitexturepacker;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+public class DirectoryOutput implements PackOutput {
+
+    private final Path root;
+    private final Map<Path, Boolean> createdDirs = new ConcurrentHashMap<>();
+    private CopyStrategy copyStrategy = CopyStrategy.COPY;
+    // set once a hardlink failed because of where output is, no point in trying again for every file
+    private final AtomicBoolean noHardlinks = new AtomicBoolean();
+    private final Map<CopyStrategy, LongAdder> copies = new EnumMap<>(CopyStrategy.class);
+    private PrintStream log = System.out;
+
+    public DirectoryOutput(Path root) {
+        this.root = root;
+        for (CopyStrategy strategy : CopyStrategy.values()) {
+            copies.put(strategy, new LongAdder());
+        }
+    }
+
+    public void setCopyStrategy(CopyStrategy copyStrategy) {
+        this.copyStrategy = copyStrategy;
+    }
+
+    public void setLog(PrintStream log) {
+        this.log = log;
+    }
+
+    // how many files were copied which way since the last call
+    Map<CopyStrategy, Long> drainCopies() {
+        Map<CopyStrategy, Long> counts = new EnumMap<>(CopyStrategy.class);
+        copies.forEach((strategy, count) -> counts.put(strategy, count.sumThenReset()));
+        return counts;
+    }
+
+    public Path root() {
+        return root;
+    }
+
+    public Path resolve(String name) {
+        return root.resolve(name);
+    }
+
+    void clean() throws IOException {
+        createdDirs.clear();
+        if (Files.exists(root)) {
+            Util.deleteDir(root);
+        }
+        Files.createDirectories(root);
+    }
+
+    @Override
+    public void copy(Path source, String name) throws IOException {
+        Path file = prepare(name);
+        // a zip or jar has no files to link or transfer from
+        boolean local = source.getFileSystem() == FileSystems.getDefault();
+        if (copyStrategy == CopyStrategy.HARDLINK && local && !noHardlinks.get()) {
+            Files.deleteIfExists(file);
+            try {
+                Files.createLink(file, source);
+                copies.get(CopyStrategy.HARDLINK).increment();
+                return;
+            } catch (NoSuchFileException e) {
+                throw e;
+            } catch (UnsupportedOperationException e) {
+                stopHardlinks(e.getMessage());
+            } catch (FileSystemException e) {
+                // only the file system tells us to stop, anything else (access denied, ...) is about this one file
+                if (isOutsideFileSystem(e)) {
+                    stopHardlinks(e.getReason());
+                }
+            }
+        }
+        if (copyStrategy != CopyStrategy.COPY && local) {
+            Files.deleteIfExists(file);
+            try (FileChannel in = FileChannel.open(source);
+                 FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+                long size = in.size();
+                for (long position = 0; position < size; ) {
+                    position += in.transferTo(position, size - position, out);
+                }
+            }
+            copies.get(CopyStrategy.TRANSFER).increment();
+            return;
+        }
+        Files.copy(source, file, StandardCopyOption.REPLACE_EXISTING);
+        copies.get(CopyStrategy.COPY).increment();
+    }
+
+    private static boolean isOutsideFileSystem(FileSystemException e) {
+        String reason = String.valueOf(e.getReason()).toLowerCase(Locale.ROOT);
+        // EXDEV and EOPNOTSUPP, and what windows says for a link to another drive
+        return reason.contains("cross-device") || reason.contains("not supported") || reason.contains("different disk drive");
+    }
+
+    private void stopHardlinks(String reason) {
+        if (noHardlinks.compareAndSet(false, true)) {
+            log.println("Can't hardlink into " + root + " (" + reason + "), using transfer for the rest of the build");
+        }
+    }
+
+    @Override
+    public void write(String name, byte[] data) throws IOException {
+        Path file = prepare(name);
+        // never write into the old file, it might be a hardlink to something in original or patch
+        Files.deleteIfExists(file);
+        Files.write(file, data);
+    }
+
+    @Override
+    public boolean exists(String name) {
+        return Files.isRegularFile(root.resolve(name));
+    }
+
+    @Override
+    public byte[] read(String name) throws IOException {
+        return Files.readAllBytes(root.resolve(name));
+    }
+
+    @Override
+    public void delete(String name) throws IOException {
+        Files.deleteIfExists(root.resolve(name));
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private Path prepare(String name) throws IOException {
+        Path file = root.resolve(name);
+        Path parent = file.getParent();
+        // only hit the disk once per folder, other threads wait in computeIfAbsent until it exists
+        if (parent != null && !createdDirs.containsKey(parent)) {
+            try {
+                createdDirs.computeIfAbsent(parent, dir -> {
+                    try {
+                        Files.createDirectories(dir);
+                        return true;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        return file;
+    }
+}
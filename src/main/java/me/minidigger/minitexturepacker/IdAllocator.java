@@ -0,0 +1,189 @@
+package me.minidigger.minitexturepacker;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Hands out custom model data ids. Used ids live in bitsets, so claiming an id while loading mappings.csv doubles
+// as the duplicate check and finding a free id is a scan over words instead of boxed sets. Reserved ranges are
+// skipped as a whole instead of being marked id by id.
+// Types can get their own range of ids, types without one share whatever isn't taken by those ranges or reserved.
+class IdAllocator {
+
+    record Range(int from, int to) {
+        // from-to, or a single id. Ids go up to Integer.MAX_VALUE - 1, so to + 1 always fits
+        static Range parse(String range) {
+            String[] parts = range.split("-");
+            int from = Integer.parseInt(parts[0].trim());
+            int to = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : from;
+            if (from < 0 || to < from) {
+                throw new IllegalArgumentException("Invalid id range " + range);
+            }
+            if (to == Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Invalid id range " + range + ", ids go up to " + (Integer.MAX_VALUE - 1));
+            }
+            return new Range(from, to);
+        }
+
+        boolean contains(int id) {
+            return id >= from && id <= to;
+        }
+
+        @Override
+        public String toString() {
+            return from + "-" + to;
+        }
+    }
+
+    // ids used to start at 2, keep it that way for packs without ranges
+    static final Range DEFAULT = new Range(2, Integer.MAX_VALUE - 1);
+
+    // used ids in bitsets of 65536 ids each, so a mapping with a huge id only costs one of them
+    private static final int PAGE_BITS = 16;
+    private final TreeMap<Integer, BitSet> used = new TreeMap<>();
+    // reserved ranges by their first id, overlapping ones merged
+    private final TreeMap<Integer, Range> blocked = new TreeMap<>();
+    private final Map<String, Range> ranges;
+    private final List<Range> reserved;
+    private final boolean fillGaps;
+
+    // fillGaps hands out the lowest free id, otherwise ids only ever grow like they always did
+    IdAllocator(Map<String, Range> ranges, List<Range> reserved, boolean fillGaps) {
+        this.ranges = ranges;
+        this.reserved = reserved;
+        this.fillGaps = fillGaps;
+        for (Range range : reserved) {
+            int from = range.from();
+            int to = range.to();
+            Map.Entry<Integer, Range> before = blocked.floorEntry(from);
+            if (before != null && before.getValue().to() >= from - 1) {
+                from = before.getKey();
+                to = Math.max(to, before.getValue().to());
+            }
+            for (Map.Entry<Integer, Range> after = blocked.ceilingEntry(from); after != null && after.getKey() <= to + 1; after = blocked.ceilingEntry(from)) {
+                to = Math.max(to, after.getValue().to());
+                blocked.remove(after.getKey());
+            }
+            blocked.put(from, new Range(from, to));
+        }
+    }
+
+    // false if the id is already used by another mapping
+    boolean claim(int id) {
+        BitSet page = used.computeIfAbsent(id >> PAGE_BITS, k -> new BitSet());
+        int bit = id & ((1 << PAGE_BITS) - 1);
+        if (page.get(bit)) {
+            return false;
+        }
+        page.set(bit);
+        return true;
+    }
+
+    // why a mapping of that type shouldn't have that id, or null if it may
+    String conflict(int id, String type) {
+        for (Range range : reserved) {
+            if (range.contains(id)) {
+                return "reserved (" + range + ")";
+            }
+        }
+        for (Map.Entry<String, Range> range : ranges.entrySet()) {
+            if (!range.getKey().equals(type) && range.getValue().contains(id)) {
+                return "in the range of type " + range.getKey() + " (" + range.getValue() + ")";
+            }
+        }
+        return null;
+    }
+
+    void release(int id) {
+        BitSet page = used.get(id >> PAGE_BITS);
+        if (page != null) {
+            page.clear(id & ((1 << PAGE_BITS) - 1));
+        }
+    }
+
+    int allocate(String type) {
+        Range range = ranges.getOrDefault(type, DEFAULT);
+        boolean shared = !ranges.containsKey(type);
+        long id = fillGaps ? range.from() : Math.max(range.from(), highestUsed(range, shared) + 1L);
+        while (id <= range.to()) {
+            id = nextUnused(id);
+            if (id > range.to()) {
+                break;
+            }
+            Range other = reservedAt((int) id);
+            if (other == null && shared) {
+                other = typeRangeOf((int) id);
+            }
+            if (other != null) {
+                id = other.to() + 1L;
+                continue;
+            }
+            claim((int) id);
+            return (int) id;
+        }
+        throw new IllegalStateException("No ids left for type " + type + " in " + range);
+    }
+
+    // the first id from there on that no mapping uses, a long so it can go past the last int
+    private long nextUnused(long id) {
+        while (id <= Integer.MAX_VALUE) {
+            BitSet page = used.get((int) id >> PAGE_BITS);
+            if (page == null) {
+                return id;
+            }
+            int bit = page.nextClearBit((int) id & ((1 << PAGE_BITS) - 1));
+            if (bit < 1 << PAGE_BITS) {
+                return ((long) ((int) id >> PAGE_BITS) << PAGE_BITS) + bit;
+            }
+            id = ((long) ((int) id >> PAGE_BITS) + 1) << PAGE_BITS;
+        }
+        return id;
+    }
+
+    // the highest used id in range that isn't in the range of another type, or from - 1
+    private long highestUsed(Range range, boolean shared) {
+        int to = range.to();
+        while (to >= range.from()) {
+            int id = previousUsed(to);
+            if (id < range.from()) {
+                break;
+            }
+            Range other = shared ? typeRangeOf(id) : null;
+            if (other == null) {
+                return id;
+            }
+            to = other.from() - 1;
+        }
+        return range.from() - 1L;
+    }
+
+    // the highest used id up to and including that one, or Integer.MIN_VALUE
+    private int previousUsed(int id) {
+        int bit = id & ((1 << PAGE_BITS) - 1);
+        for (Map.Entry<Integer, BitSet> page = used.floorEntry(id >> PAGE_BITS); page != null; page = used.lowerEntry(page.getKey())) {
+            if (page.getKey() != id >> PAGE_BITS) {
+                bit = (1 << PAGE_BITS) - 1;
+            }
+            int found = page.getValue().previousSetBit(bit);
+            if (found >= 0) {
+                return (page.getKey() << PAGE_BITS) | found;
+            }
+        }
+        return Integer.MIN_VALUE;
+    }
+
+    private Range reservedAt(int id) {
+        Map.Entry<Integer, Range> range = blocked.floorEntry(id);
+        return range != null && range.getValue().contains(id) ? range.getValue() : null;
+    }
+
+    private Range typeRangeOf(int id) {
+        for (Range range : ranges.values()) {
+            if (range.contains(id)) {
+                return range;
+            }
+        }
+        return null;
+    }
+}
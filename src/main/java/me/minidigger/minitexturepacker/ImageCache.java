@@ -0,0 +1,135 @@
+package me.minidigger.minitexturepacker;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+// Transformed images, content addressed by the source bytes, the transform chain and VERSION. Hits are just copied,
+// so unchanged textures never go through ImageIO again. Least recently used files are evicted once the cache grows
+// past its size limit.
+public class ImageCache {
+
+    // bump whenever the transform or png code changes its output
+    static final int VERSION = 1;
+
+    private final Path dir;
+    private final long maxSize;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    private PrintStream log = System.out;
+
+    public ImageCache(Path dir, long maxSize) {
+        this.dir = dir;
+        this.maxSize = maxSize;
+    }
+
+    public void setLog(PrintStream log) {
+        this.log = log;
+    }
+
+    String key(byte[] source, String transform) {
+        var digest = Util.sha1();
+        digest.update(source);
+        digest.update(("\n" + transform + "\n" + VERSION).getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private Path file(String key) {
+        return dir.resolve(key.substring(0, 2)).resolve(key + ".png");
+    }
+
+    // the size of the cached image that was copied to output, or -1 if there is none
+    long copyTo(String key, PackOutput output, String name) throws IOException {
+        Path file = file(key);
+        if (!Files.isRegularFile(file)) {
+            misses.incrementAndGet();
+            return -1;
+        }
+        // the bytes, not the file, a MemoryOutput would only copy it on close and evict() might have removed it by then
+        byte[] data = Files.readAllBytes(file);
+        output.write(name, data);
+        // lru bookkeeping, the mtime is when we last needed it
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        hits.incrementAndGet();
+        return data.length;
+    }
+
+    void store(String key, byte[] data) {
+        Path file = file(key);
+        try {
+            Files.createDirectories(file.getParent());
+            // write somewhere else first so a concurrent reader never sees half a file
+            Path temp = Files.createTempFile(file.getParent(), key, ".tmp");
+            Files.write(temp, data);
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            log.println("Error while caching " + key + ": " + e.getClass().getName() + ": " + e.getMessage());
+        }
+    }
+
+    int hits() {
+        return hits.get();
+    }
+
+    int misses() {
+        return misses.get();
+    }
+
+    // drops the least recently used images until we are below the limit again
+    void evict() {
+        log.print("Cleaning image cache... ");
+        record Cached(Path file, long size, long lastUsed) {
+        }
+        List<Cached> files = new ArrayList<>();
+        long total = 0;
+        if (!Files.isDirectory(dir)) {
+            log.println("Nothing cached yet");
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) walk::iterator) {
+                BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                if (attrs.isRegularFile()) {
+                    files.add(new Cached(file, attrs.size(), attrs.lastModifiedTime().toMillis()));
+                    total += attrs.size();
+                }
+            }
+        } catch (IOException e) {
+            log.println("Error while scanning image cache: " + e.getClass().getName() + ": " + e.getMessage());
+            return;
+        }
+        int evicted = 0;
+        if (total > maxSize) {
+            files.sort(Comparator.comparingLong(Cached::lastUsed));
+            for (Cached cached : files) {
+                if (total <= maxSize) {
+                    break;
+                }
+                try {
+                    Files.deleteIfExists(cached.file());
+                    total -= cached.size();
+                    evicted++;
+                } catch (IOException e) {
+                    log.println("Error while evicting " + cached.file() + ": " + e.getClass().getName() + ": " + e.getMessage());
+                }
+            }
+        }
+        log.println(hits.get() + " hits, " + misses.get() + " misses, evicted " + evicted + " images, " + (total / 1024) + " KiB left");
+    }
+}
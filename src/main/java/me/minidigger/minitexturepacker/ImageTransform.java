@@ -0,0 +1,296 @@
+package me.minidigger.minitexturepacker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONObject;
+
+// A single step of a transform chain, see TransformChain for how they are combined.
+sealed interface ImageTransform {
+
+    String describe();
+
+    // looks at one color channel at a time, consecutive ones get folded into one lookup table
+    non-sealed interface Channel extends ImageTransform {
+        int apply(int value);
+    }
+
+    // looks at one whole ARGB pixel at a time, consecutive ones share a single loop over the image
+    non-sealed interface Pixel extends ImageTransform {
+        int apply(int argb);
+    }
+
+    // needs the whole image, gets its own pass over the already decoded pixels
+    non-sealed interface Pass extends ImageTransform {
+        Pixels apply(Pixels pixels);
+    }
+
+    record Pixels(int[] argb, int width, int height) {
+    }
+
+    static ImageTransform parse(JSONObject json) {
+        String type = json.getString("type");
+        return switch (type) {
+            case "brighten" -> new Brighten(json.getFloat("factor"));
+            case "gamma" -> new Gamma(json.getFloat("gamma"));
+            case "tint" -> new Tint(color(json.getString("color")), json.optFloat("strength", 1));
+            case "saturation" -> new Saturation(json.getFloat("factor"));
+            case "downscale" -> new Downscale(json.getInt("size"));
+            case "quantize" -> new Quantize(json.getInt("colors"));
+            default -> throw new IllegalArgumentException("Unknown transform " + type);
+        };
+    }
+
+    // #rrggbb, the # is optional
+    private static int color(String color) {
+        String hex = color.startsWith("#") ? color.substring(1) : color;
+        if (!hex.matches("[0-9a-fA-F]{6}")) {
+            throw new IllegalArgumentException("tint color has to look like #rrggbb, got " + color);
+        }
+        return Integer.parseInt(hex, 16);
+    }
+
+    // NaN fails every comparison, so it never passes this
+    private static void check(boolean valid, String message) {
+        if (!valid) {
+            throw new IllegalArgumentException(message);
+        }
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+
+    record Brighten(float factor) implements Channel {
+        public Brighten {
+            check(factor >= 0 && factor < Float.POSITIVE_INFINITY, "brighten factor has to be 0 or more, got " + factor);
+        }
+
+        @Override
+        public int apply(int value) {
+            // truncating, same as the RescaleOp we used to use
+            return clamp((int) (value * factor));
+        }
+
+        @Override
+        public String describe() {
+            return "brighten(" + factor + ")";
+        }
+    }
+
+    // values above 1 brighten the mid tones, below 1 darken them
+    record Gamma(float gamma) implements Channel {
+        public Gamma {
+            check(gamma > 0 && gamma < Float.POSITIVE_INFINITY, "gamma has to be more than 0, got " + gamma);
+        }
+
+        @Override
+        public int apply(int value) {
+            return clamp((int) Math.round(255 * Math.pow(value / 255d, 1 / gamma)));
+        }
+
+        @Override
+        public String describe() {
+            return "gamma(" + gamma + ")";
+        }
+    }
+
+    // multiplies with the color, strength blends between untouched (0) and fully multiplied (1)
+    record Tint(int rgb, float strength) implements Pixel {
+        public Tint {
+            check(rgb >= 0 && rgb <= 0xFFFFFF, "tint color has to be between #000000 and #ffffff, got " + rgb);
+            check(strength >= 0 && strength <= 1, "tint strength has to be between 0 and 1, got " + strength);
+        }
+
+        @Override
+        public int apply(int argb) {
+            int r = channel(argb >> 16 & 0xFF, rgb >> 16 & 0xFF);
+            int g = channel(argb >> 8 & 0xFF, rgb >> 8 & 0xFF);
+            int b = channel(argb & 0xFF, rgb & 0xFF);
+            return argb & 0xFF000000 | r << 16 | g << 8 | b;
+        }
+
+        private int channel(int value, int tint) {
+            return clamp(Math.round(value + (value * tint / 255f - value) * strength));
+        }
+
+        @Override
+        public String describe() {
+            return "tint(" + String.format("#%06x", rgb) + "," + strength + ")";
+        }
+    }
+
+    record Saturation(float factor) implements Pixel {
+        public Saturation {
+            check(factor >= 0 && factor < Float.POSITIVE_INFINITY, "saturation factor has to be 0 or more, got " + factor);
+        }
+
+        @Override
+        public int apply(int argb) {
+            int r = argb >> 16 & 0xFF;
+            int g = argb >> 8 & 0xFF;
+            int b = argb & 0xFF;
+            float luma = 0.299f * r + 0.587f * g + 0.114f * b;
+            r = clamp(Math.round(luma + (r - luma) * factor));
+            g = clamp(Math.round(luma + (g - luma) * factor));
+            b = clamp(Math.round(luma + (b - luma) * factor));
+            return argb & 0xFF000000 | r << 16 | g << 8 | b;
+        }
+
+        @Override
+        public String describe() {
+            return "saturation(" + factor + ")";
+        }
+    }
+
+    // box filter down to size pixels wide, animated textures (frames stacked vertically) keep their frame count
+    record Downscale(int size) implements Pass {
+        public Downscale {
+            check(size >= 1, "downscale size has to be at least 1, got " + size);
+        }
+
+        @Override
+        public Pixels apply(Pixels pixels) {
+            int scale = pixels.width() / size;
+            if (pixels.width() <= size || pixels.width() % size != 0 || pixels.height() % scale != 0) {
+                return pixels;
+            }
+            int width = size;
+            int height = pixels.height() / scale;
+            int[] out = new int[width * height];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    long a = 0, r = 0, g = 0, b = 0;
+                    for (int dy = 0; dy < scale; dy++) {
+                        int row = (y * scale + dy) * pixels.width() + x * scale;
+                        for (int dx = 0; dx < scale; dx++) {
+                            int argb = pixels.argb()[row + dx];
+                            int alpha = argb >>> 24;
+                            // weight by alpha, otherwise transparent pixels bleed their (usually black) color in
+                            a += alpha;
+                            r += (long) (argb >> 16 & 0xFF) * alpha;
+                            g += (long) (argb >> 8 & 0xFF) * alpha;
+                            b += (long) (argb & 0xFF) * alpha;
+                        }
+                    }
+                    int count = scale * scale;
+                    out[y * width + x] = a == 0 ? 0 : (int) (a / count) << 24 | (int) (r / a) << 16 | (int) (g / a) << 8 | (int) (b / a);
+                }
+            }
+            return new Pixels(out, width, height);
+        }
+
+        @Override
+        public String describe() {
+            return "downscale(" + size + ")";
+        }
+    }
+
+    // median cut over the distinct colors of the image
+    record Quantize(int colors) implements Pass {
+        public Quantize {
+            check(colors >= 1, "quantize colors has to be at least 1, got " + colors);
+        }
+
+        @Override
+        public Pixels apply(Pixels pixels) {
+            Map<Integer, Integer> counts = new HashMap<>();
+            for (int argb : pixels.argb()) {
+                counts.merge(argb, 1, Integer::sum);
+            }
+            if (counts.size() <= colors) {
+                return pixels;
+            }
+            List<int[]> boxes = new ArrayList<>();
+            boxes.add(counts.keySet().stream().mapToInt(Integer::intValue).toArray());
+            while (boxes.size() < colors) {
+                int[] widest = null;
+                int widestChannel = 0;
+                int widestRange = 0;
+                for (int[] box : boxes) {
+                    for (int channel = 0; channel < 4; channel++) {
+                        int range = range(box, channel);
+                        if (range > widestRange) {
+                            widest = box;
+                            widestChannel = channel;
+                            widestRange = range;
+                        }
+                    }
+                }
+                if (widest == null) {
+                    break;
+                }
+                int shift = widestChannel * 8;
+                int[] sorted = Arrays.stream(widest).boxed()
+                        .sorted(Comparator.comparingInt(c -> c >>> shift & 0xFF))
+                        .mapToInt(Integer::intValue).toArray();
+                boxes.remove(widest);
+                boxes.add(Arrays.copyOfRange(sorted, 0, sorted.length / 2));
+                boxes.add(Arrays.copyOfRange(sorted, sorted.length / 2, sorted.length));
+            }
+            int[] palette = boxes.stream().mapToInt(box -> average(box, counts)).toArray();
+            Map<Integer, Integer> mapped = new HashMap<>();
+            int[] out = new int[pixels.argb().length];
+            for (int i = 0; i < out.length; i++) {
+                out[i] = mapped.computeIfAbsent(pixels.argb()[i], c -> nearest(c, palette));
+            }
+            return new Pixels(out, pixels.width(), pixels.height());
+        }
+
+        private static int range(int[] box, int channel) {
+            if (box.length < 2) {
+                return 0;
+            }
+            int shift = channel * 8;
+            int min = 255, max = 0;
+            for (int c : box) {
+                int value = c >>> shift & 0xFF;
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            return max - min;
+        }
+
+        private static int average(int[] box, Map<Integer, Integer> counts) {
+            long total = 0;
+            long[] sums = new long[4];
+            for (int c : box) {
+                int count = counts.get(c);
+                total += count;
+                for (int channel = 0; channel < 4; channel++) {
+                    sums[channel] += (long) (c >>> channel * 8 & 0xFF) * count;
+                }
+            }
+            int result = 0;
+            for (int channel = 0; channel < 4; channel++) {
+                result |= (int) (sums[channel] / total) << channel * 8;
+            }
+            return result;
+        }
+
+        private static int nearest(int color, int[] palette) {
+            int best = palette[0];
+            long bestDistance = Long.MAX_VALUE;
+            for (int candidate : palette) {
+                long distance = 0;
+                for (int channel = 0; channel < 4; channel++) {
+                    int d = (color >>> channel * 8 & 0xFF) - (candidate >>> channel * 8 & 0xFF);
+                    distance += (long) d * d;
+                }
+                if (distance < bestDistance) {
+                    best = candidate;
+                    bestDistance = distance;
+                }
+            }
+            return best;
+        }
+
+        @Override
+        public String describe() {
+            return "quantize(" + colors + ")";
+        }
+    }
+}
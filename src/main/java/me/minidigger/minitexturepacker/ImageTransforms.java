@@ -0,0 +1,108 @@
+package me.minidigger.minitexturepacker;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+// The glob -> transforms rules from transforms.json. Every rule that matches an image adds its transforms to the
+// chain for that image, in the order the rules are listed.
+public class ImageTransforms {
+
+    private record Rule(String glob, PathMatcher matcher, TransformChain chain) {
+        String describe() {
+            return glob + "=" + chain.describe();
+        }
+    }
+
+    // --brighten used to only touch pngs with "blocks" in their path, keep it that way
+    private static final String LEGACY_BRIGHTEN_GLOB = "assets/minecraft/textures/**blocks**.png";
+
+    private final List<Rule> rules;
+    // chains for images that match more than one rule, keyed by the indices of the rules
+    private final Map<List<Integer>, TransformChain> combined = new ConcurrentHashMap<>();
+
+    private ImageTransforms(List<Rule> rules) {
+        this.rules = rules;
+    }
+
+    public static ImageTransforms none() {
+        return new ImageTransforms(List.of());
+    }
+
+    public static ImageTransforms load(Path file) throws IOException {
+        JSONArray json = new JSONArray(Files.readString(file));
+        List<Rule> rules = new ArrayList<>();
+        for (int i = 0; i < json.length(); i++) {
+            JSONObject rule = json.getJSONObject(i);
+            try {
+                JSONArray transforms = rule.getJSONArray("transforms");
+                List<ImageTransform> chain = new ArrayList<>();
+                for (int j = 0; j < transforms.length(); j++) {
+                    chain.add(ImageTransform.parse(transforms.getJSONObject(j)));
+                }
+                rules.add(rule(rule.getString("glob"), new TransformChain(chain)));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid rule " + (i + 1) + " (" + rule.optString("glob", "no glob") + "): " + e.getMessage(), e);
+            }
+        }
+        return new ImageTransforms(rules);
+    }
+
+    ImageTransforms withBrighten(float factor) {
+        if (factor == 1) {
+            return this;
+        }
+        List<Rule> all = new ArrayList<>();
+        all.add(rule(LEGACY_BRIGHTEN_GLOB, new TransformChain(List.of(new ImageTransform.Brighten(factor)))));
+        all.addAll(rules);
+        return new ImageTransforms(all);
+    }
+
+    private static Rule rule(String glob, TransformChain chain) {
+        return new Rule(glob, FileSystems.getDefault().getPathMatcher("glob:" + glob), chain);
+    }
+
+    boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    int size() {
+        return rules.size();
+    }
+
+    TransformChain chainFor(String name) {
+        if (rules.isEmpty() || !name.endsWith(".png")) {
+            return TransformChain.EMPTY;
+        }
+        Path path = Path.of(name);
+        List<Integer> matched = new ArrayList<>(1);
+        for (int i = 0; i < rules.size(); i++) {
+            if (rules.get(i).matcher().matches(path)) {
+                matched.add(i);
+            }
+        }
+        if (matched.isEmpty()) {
+            return TransformChain.EMPTY;
+        }
+        if (matched.size() == 1) {
+            return rules.get(matched.get(0)).chain();
+        }
+        return combined.computeIfAbsent(matched, indices -> indices.stream()
+                .map(i -> rules.get(i).chain())
+                .reduce(TransformChain.EMPTY, TransformChain::then));
+    }
+
+    // changes whenever any rule changes
+    String describe() {
+        return rules.stream().map(Rule::describe).collect(Collectors.joining(";"));
+    }
+}
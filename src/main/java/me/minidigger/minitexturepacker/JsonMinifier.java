@@ -0,0 +1,154 @@
+package me.minidigger.minitexturepacker;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.json.JSONException;
+
+// Rewrites json files without any whitespace, with the keys of every object sorted and numbers in their shortest form,
+// so the same content always gives the same bytes (and the same hash) no matter how it was authored. Arrays keep
+// their order, that one matters for overrides and multipart blockstates.
+// Files that don't parse are shipped as they are and counted, the model check tells you what is wrong with them.
+public class JsonMinifier {
+
+    // files, bytes before, bytes after
+    private final Map<String, AtomicLongArray> stats = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> failed = new ConcurrentHashMap<>();
+
+    String describe() {
+        return "minify";
+    }
+
+    static boolean isJson(String name) {
+        return name.endsWith(".json") || name.endsWith(".mcmeta");
+    }
+
+    // the minified json, or data itself if it isn't json we can read
+    byte[] minify(String name, byte[] data) {
+        byte[] minified;
+        try {
+            StringBuilder sb = new StringBuilder(data.length / 2);
+            new JsonWriter(sb, true).write(canonicalize(JsonWriter.parse(new String(data, StandardCharsets.UTF_8))));
+            minified = sb.toString().getBytes(StandardCharsets.UTF_8);
+        } catch (JSONException | IOException | ClassCastException e) {
+            failed.put(name, true);
+            minified = data;
+        }
+        AtomicLongArray category = stats.computeIfAbsent(Util.category(name), k -> new AtomicLongArray(3));
+        category.incrementAndGet(0);
+        category.addAndGet(1, data.length);
+        category.addAndGet(2, minified.length);
+        return minified;
+    }
+
+    private static Object canonicalize(Object value) {
+        if (value instanceof Map<?, ?> map) {
+            Map<String, Object> sorted = new TreeMap<>();
+            map.forEach((k, v) -> sorted.put(k.toString(), canonicalize(v)));
+            return sorted;
+        }
+        if (value instanceof List<?> list) {
+            List<Object> canonical = new ArrayList<>(list.size());
+            list.forEach(element -> canonical.add(canonicalize(element)));
+            return canonical;
+        }
+        if (value instanceof Number number) {
+            return number(number);
+        }
+        return value;
+    }
+
+    // 1.0 -> 1, 0.50 -> 0.5, 1e2 -> 100, -0 -> 0
+    private static Number number(Number number) {
+        BigDecimal decimal;
+        if (number instanceof BigDecimal d) {
+            decimal = d;
+        } else if (number instanceof BigInteger i) {
+            return i;
+        } else if (number instanceof Double || number instanceof Float) {
+            double d = number.doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                return number;
+            }
+            decimal = BigDecimal.valueOf(d);
+        } else {
+            return number;
+        }
+        decimal = decimal.stripTrailingZeros();
+        if (decimal.signum() == 0) {
+            return 0;
+        }
+        // don't blow up 1e300 into 300 digits
+        if (decimal.scale() <= 0 && decimal.precision() - decimal.scale() <= 19) {
+            return decimal.toBigIntegerExact();
+        }
+        return decimal;
+    }
+
+    // everything written through the returned output is minified, for the stages after the packer
+    PackOutput wrap(PackOutput output) {
+        return new PackOutput() {
+            @Override
+            public void copy(Path source, String name) throws IOException {
+                if (isJson(name)) {
+                    write(name, Files.readAllBytes(source));
+                } else {
+                    output.copy(source, name);
+                }
+            }
+
+            @Override
+            public void write(String name, byte[] data) throws IOException {
+                output.write(name, isJson(name) ? minify(name, data) : data);
+            }
+
+            @Override
+            public boolean exists(String name) {
+                return output.exists(name);
+            }
+
+            @Override
+            public byte[] read(String name) throws IOException {
+                return output.read(name);
+            }
+
+            @Override
+            public void delete(String name) throws IOException {
+                output.delete(name);
+            }
+
+            @Override
+            public void close() {
+                // the real output is closed by whoever opened it
+            }
+        };
+    }
+
+    void report() {
+        long files = 0;
+        long before = 0;
+        long after = 0;
+        for (AtomicLongArray category : stats.values()) {
+            files += category.get(0);
+            before += category.get(1);
+            after += category.get(2);
+        }
+        System.out.println("Minified " + files + " json files from " + before / 1024 + " KiB to " + after / 1024 + " KiB, saved "
+                + (before == 0 ? 0 : (before - after) * 100 / before) + "%");
+        new TreeMap<>(stats).forEach((name, category) -> System.out.println("  " + name + ": " + category.get(0) + " files, "
+                + category.get(1) + " -> " + category.get(2) + " bytes"));
+        if (!failed.isEmpty()) {
+            System.out.println("  " + failed.size() + " files aren't valid json and were left as they are: "
+                    + String.join(", ", new TreeMap<>(failed).keySet().stream().limit(10).toList()) + (failed.size() > 10 ? ", ..." : ""));
+        }
+    }
+}
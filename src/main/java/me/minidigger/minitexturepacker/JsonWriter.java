@@ -0,0 +1,213 @@
+package me.minidigger.minitexturepacker;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+// Writes json straight to an Appendable, either indented with two spaces or compact. Unlike JSONObject it keeps
+// keys in the order they are written and never builds the whole document in memory first.
+class JsonWriter {
+
+    private final Appendable out;
+    private final boolean compact;
+    // per open object or array, whether nothing has been written into it yet
+    private final Deque<Boolean> empty = new ArrayDeque<>();
+    private boolean afterName;
+
+    JsonWriter(Appendable out, boolean compact) {
+        this.out = out;
+        this.compact = compact;
+    }
+
+    JsonWriter beginObject() throws IOException {
+        return open('{');
+    }
+
+    JsonWriter endObject() throws IOException {
+        return close('}');
+    }
+
+    JsonWriter beginArray() throws IOException {
+        return open('[');
+    }
+
+    JsonWriter endArray() throws IOException {
+        return close(']');
+    }
+
+    JsonWriter name(String name) throws IOException {
+        separate();
+        quote(name);
+        out.append(compact ? ":" : ": ");
+        afterName = true;
+        return this;
+    }
+
+    JsonWriter value(Object value) throws IOException {
+        separate();
+        if (value instanceof Number number) {
+            out.append(JSONObject.numberToString(number));
+        } else if (value instanceof Boolean || value == null || value == JSONObject.NULL) {
+            out.append(String.valueOf(value == JSONObject.NULL ? null : value));
+        } else {
+            quote(value.toString());
+        }
+        return this;
+    }
+
+    // only what json requires, JSONObject.quote also escapes / and a lot of unicode which just makes lang files larger
+    private void quote(String string) throws IOException {
+        out.append('"');
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                case '\b' -> out.append("\\b");
+                case '\f' -> out.append("\\f");
+                default -> {
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+                }
+            }
+        }
+        out.append('"');
+    }
+
+    // maps, lists and everything value() takes, as read by parse()
+    JsonWriter write(Object value) throws IOException {
+        if (value instanceof Map<?, ?> map) {
+            beginObject();
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                name(entry.getKey().toString());
+                write(entry.getValue());
+            }
+            return endObject();
+        }
+        if (value instanceof List<?> list) {
+            beginArray();
+            for (Object element : list) {
+                write(element);
+            }
+            return endArray();
+        }
+        return value(value);
+    }
+
+    private JsonWriter open(char bracket) throws IOException {
+        separate();
+        out.append(bracket);
+        empty.push(true);
+        return this;
+    }
+
+    private JsonWriter close(char bracket) throws IOException {
+        boolean wasEmpty = empty.pop();
+        if (!wasEmpty) {
+            newLine();
+        }
+        out.append(bracket);
+        return this;
+    }
+
+    // the comma and line break before a value, unless it's the value of a name
+    private void separate() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (empty.isEmpty()) {
+            return;
+        }
+        if (!empty.peek()) {
+            out.append(',');
+        } else {
+            empty.pop();
+            empty.push(false);
+        }
+        newLine();
+    }
+
+    private void newLine() throws IOException {
+        if (compact) {
+            return;
+        }
+        out.append('\n');
+        for (int i = 0; i < empty.size(); i++) {
+            out.append("  ");
+        }
+    }
+
+    // json into LinkedHashMaps and ArrayLists so the key order survives, org.json is lenient enough to take
+    // unquoted strings like a bare %mini_model_creator_marker%
+    static Object parse(String json) throws JSONException {
+        JSONTokener tokener = new JSONTokener(json);
+        Object value = parse(tokener);
+        if (tokener.nextClean() != 0) {
+            throw tokener.syntaxError("Expected the end of the file");
+        }
+        return value;
+    }
+
+    private static Object parse(JSONTokener tokener) throws JSONException {
+        char c = tokener.nextClean();
+        if (c == '{') {
+            Map<String, Object> map = new LinkedHashMap<>();
+            if (tokener.nextClean() == '}') {
+                return map;
+            }
+            tokener.back();
+            while (true) {
+                String key = parse(tokener).toString();
+                if (tokener.nextClean() != ':') {
+                    throw tokener.syntaxError("Expected a ':' after a key");
+                }
+                map.put(key, parse(tokener));
+                c = tokener.nextClean();
+                if (c == '}') {
+                    return map;
+                }
+                if (c != ',') {
+                    throw tokener.syntaxError("Expected a ',' or '}'");
+                }
+            }
+        }
+        if (c == '[') {
+            List<Object> list = new ArrayList<>();
+            if (tokener.nextClean() == ']') {
+                return list;
+            }
+            tokener.back();
+            while (true) {
+                list.add(parse(tokener));
+                c = tokener.nextClean();
+                if (c == ']') {
+                    return list;
+                }
+                if (c != ',') {
+                    throw tokener.syntaxError("Expected a ',' or ']'");
+                }
+                // be nice about trailing commas, templates used to need them
+                if (tokener.nextClean() == ']') {
+                    return list;
+                }
+                tokener.back();
+            }
+        }
+        tokener.back();
+        return tokener.nextValue();
+    }
+}
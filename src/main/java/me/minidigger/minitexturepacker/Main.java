@@ -1,8 +1,16 @@
 package me.minidigger.minitexturepacker;
 
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.stream.Collectors;
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
@@ -17,10 +25,87 @@ public class Main {
     private String namespace = "dyescape";
     @Parameter(names = {"--item", "-i"}, required = false, description = "A list of key=value pairs for item type mappings")
     private List<String> items = List.of("default=diamond_sword", "bow=bow");
+    @Parameter(names = "--incremental", required = false, description = "Only copy files that changed since the last build, tracked in output.manifest")
+    private boolean incremental;
+    @Parameter(names = {"--threads", "-t"}, required = false, description = "How many threads copy files, image processing is additionally capped at the number of cores")
+    private int threads = Runtime.getRuntime().availableProcessors();
+    @Parameter(names = "--in-memory", required = false, description = "Build the whole pack in memory and write the output folder once at the end")
+    private boolean inMemory = false;
+    @Parameter(names = "--copy-strategy", required = false, description = "How files that are shipped as they are get into the output folder: hardlink, transfer or copy, falls back to the next one if it can't be used")
+    private CopyStrategy copyStrategy = CopyStrategy.COPY;
+    @Parameter(names = "--zip", required = false, description = "Write the pack straight into this zip file instead of the output folder")
+    private String zipPath;
+    @Parameter(names = "--original", required = false, description = "The original pack, either a folder or a zip/jar (like the client jar), defaults to original in the main dir")
+    private String originalPath;
+    @Parameter(names = "--patch", required = false, description = "The patch, either a folder or a zip, defaults to patch in the main dir")
+    private String patchPath;
+    @Parameter(names = "--transforms", required = false, description = "Image transform rules, defaults to transforms.json in the main dir if it exists")
+    private String transformsPath;
+    @Parameter(names = "--cache", required = false, description = "Folder to cache transformed images in between builds")
+    private String cachePath;
+    @Parameter(names = "--cache-size", required = false, description = "How large the image cache may get, in MiB")
+    private long cacheSize = 512;
+    @Parameter(names = "--optimize", required = false, description = "Re-encode all pngs as small as possible, with this deflate level (1-9, 0 to skip)")
+    private int optimizeLevel = 0;
+    @Parameter(names = "--atlas", required = false, description = "Stitch the textures of the namespace models into atlas sheets")
+    private boolean atlas = false;
+    @Parameter(names = "--atlas-size", required = false, description = "Largest width and height of an atlas sheet")
+    private int atlasSize = 1024;
+    @Parameter(names = "--game-version", required = false, description = "The game version whose asset index lists the languages")
+    private String gameVersion = "1.17";
+    @Parameter(names = "--asset-index", required = false, description = "The asset index file, defaults to asset-index/<game version>.json in the main dir")
+    private String assetIndexPath;
+    @Parameter(names = "--refresh-asset-index", required = false, description = "Download the asset index from mojang before building")
+    private boolean refreshAssetIndex = false;
+    @Parameter(names = "--id-range", required = false, description = "A list of type=from-to pairs, new models of that type get an id in that range")
+    private List<String> idRanges = List.of();
+    @Parameter(names = "--reserved-ids", required = false, description = "A list of from-to ranges (or single ids) that are never handed out")
+    private List<String> reservedIds = List.of();
+    @Parameter(names = "--reuse-ids-after", required = false, description = "Hand out the ids of removed models again after this many days, -1 to never reuse them")
+    private int reuseIdsAfter = -1;
+    @Parameter(names = "--compact-json", required = false, description = "Write the generated item models without any whitespace")
+    private boolean compactJson = false;
+    @Parameter(names = "--minify-json", required = false, description = "Strip all whitespace from json files and sort their keys, prints what that saved per folder")
+    private boolean minifyJson = false;
+    @Parameter(names = "--skip-model-check", required = false, description = "Don't check models for missing parents, textures and override models")
+    private boolean skipModelCheck = false;
+    @Parameter(names = "--delta", required = false, description = "Only ship files that are new in patch, differ from original or are transformed, original has to be vanilla for this")
+    private boolean delta = false;
+
+    @Parameter(names = "--watch", required = false, description = "Keep running after the build and rebuild what is affected whenever something in patch changes")
+    private boolean watch = false;
+
+    @Parameter(names = "--build-report", required = false, description = "Write how long each stage took and what it did to this json file")
+    private String buildReportPath;
+    @Parameter(names = "--summary", required = false, description = "Print a table of how long each stage took and what it did at the end")
+    private boolean summary = false;
 
     @Parameter(names = "--help", help = true, description = "Displays a help page")
     private boolean help;
 
+    // files the model creator writes into patch, changes to those must not trigger another rebuild
+    private static final Set<String> WRITTEN_TO_PATCH = Set.of("mappings.csv", "mappings.bin", "mappings.bin.tmp", "freed-ids.csv");
+    // what the packer reads and writes, the other stages are declared where they are added, see Pipeline
+    private static final List<String> PACKER_READS = List.of("original/", "patch/assets/", "patch/pack.mcmeta", "patch/pack.png", "cache/");
+    private static final List<String> PACKER_WRITES = List.of("output/", "output.manifest", "cache/", "png-savings.csv");
+
+    // the stages, set up once and run again by watch mode
+    private MiniTexturePacker packer;
+    private ImageCache cache;
+    private PngOptimizer optimizer;
+    private JsonMinifier minifier;
+    private TextureAtlas textureAtlas;
+    private ModelValidator validator;
+    private MiniModelCreator modelCreator;
+    private MiniLanguageHandler languageHandler;
+    // every stage prints to its own stream, see Pipeline.lines
+    private final PrintStream packerLog = Pipeline.lines();
+    private final BuildMetrics metrics = new BuildMetrics();
+    // the output folder, if we write to one
+    private DirectoryOutput directory;
+    // exit with 1, the pack is missing files or a stage failed
+    private boolean failed;
+
     public static void main(String[] args) {
         Main main = new Main();
         JCommander commander = JCommander.newBuilder()
@@ -32,6 +117,9 @@ public class Main {
             commander.usage();
         } else {
             main.start();
+            if (main.failed) {
+                System.exit(1);
+            }
         }
     }
 
@@ -41,8 +129,285 @@ public class Main {
                 .collect(Collectors.toMap(s -> s[0], s-> s[1]));
         Path mainDir = Path.of(mainDirPath);
 
-        new MiniTexturePacker(mainDir.resolve("original"), mainDir.resolve("patch"), mainDir.resolve("output")).patch(brightenFactor);
-        new MiniModelCreator(mainDir.resolve("patch"), mainDir.resolve("output"), namespace, itemsToOverride).process();
-        new MiniLanguageHandler(mainDir.resolve("patch"), mainDir.resolve("output")).process();
+        List<PackArchive> archives = new ArrayList<>();
+        try (PackOutput output = createOutput(mainDir)) {
+            Path original = open(findInput(mainDir, originalPath, "original"), archives);
+            Path patch = open(findInput(mainDir, patchPath, "patch"), archives);
+
+            packer = new MiniTexturePacker(original, patch, output);
+            packer.setIncremental(incremental);
+            packer.setLog(packerLog);
+            packer.setMetrics(metrics);
+            packer.setDelta(delta);
+            packer.setThreads(threads);
+            packer.setTransforms(loadTransforms(mainDir));
+            archives.forEach(packer::addArchive);
+            cache = cachePath != null ? new ImageCache(Path.of(cachePath), cacheSize * 1024 * 1024) : null;
+            if (cache != null) {
+                cache.setLog(Pipeline.lines());
+            }
+            packer.setImageCache(cache);
+            optimizer = optimizeLevel > 0 ? new PngOptimizer(optimizeLevel) : null;
+            packer.setOptimizer(optimizer);
+            minifier = minifyJson ? new JsonMinifier() : null;
+            packer.setMinifier(minifier);
+            // everything after the packer writes json through this one
+            PackOutput generated = minifier != null ? minifier.wrap(output) : output;
+            if (atlas) {
+                textureAtlas = new TextureAtlas(patch, generated, namespace, atlasSize);
+                textureAtlas.setOptimizer(optimizer);
+                textureAtlas.setLog(Pipeline.lines());
+            }
+            if (!skipModelCheck) {
+                validator = new ModelValidator(original, patch, mainDir.resolve("models.cache"), mainDir.resolve("model-report.txt"));
+                validator.setThreads(threads);
+                validator.setLog(Pipeline.lines());
+            }
+            modelCreator = new MiniModelCreator(patch, generated, namespace, itemsToOverride);
+            modelCreator.setThreads(threads);
+            modelCreator.setLog(Pipeline.lines());
+            modelCreator.setMetrics(metrics);
+            modelCreator.setCompact(compactJson);
+            modelCreator.setIdRanges(idRanges.stream()
+                    .map(s -> s.split("="))
+                    .collect(Collectors.toMap(s -> s[0], s -> IdAllocator.Range.parse(s[1]))));
+            modelCreator.setReservedIds(reservedIds.stream().map(IdAllocator.Range::parse).collect(Collectors.toList()));
+            modelCreator.setReuseIdsAfter(reuseIdsAfter >= 0 ? Duration.ofDays(reuseIdsAfter) : null);
+            languageHandler = new MiniLanguageHandler(original, patch, generated, loadAssetIndex(mainDir));
+            languageHandler.setThreads(threads);
+            languageHandler.setLog(Pipeline.lines());
+            languageHandler.setMetrics(metrics);
+
+            build(mainDir);
+            report();
+            if (packer.errors() > 0) {
+                System.out.println(packer.errors() + " files couldn't be copied, the pack is incomplete!");
+                failed = true;
+            }
+            if (validator != null && validator.errors() > 0) {
+                System.out.println(validator.errors() + " broken model references, see model-report.txt!");
+                failed = true;
+            }
+            if (watch) {
+                watch(mainDir, patch, output);
+            }
+        } catch (IOException e) {
+            System.out.println("Error while writing output: " + e.getClass().getName() + ": " + e.getMessage());
+            failed = true;
+        } finally {
+            for (PackArchive archive : archives) {
+                try {
+                    archive.close();
+                } catch (IOException e) {
+                    System.out.println("Error while closing " + archive + ": " + e.getClass().getName() + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void build(Path mainDir) {
+        Pipeline pipeline = new Pipeline(metrics);
+        pipeline.add(MiniTexturePacker.STAGE, PACKER_READS, PACKER_WRITES, () -> {
+            packer.patch(brightenFactor);
+            if (optimizer != null) {
+                optimizer.report(mainDir.resolve("png-savings.csv"), packerLog);
+            }
+        });
+        if (cache != null) {
+            pipeline.add("cache evict", List.of("cache/"), List.of("cache/"), () -> {
+                cache.evict();
+                metrics.add(MiniTexturePacker.STAGE, "cacheHits", cache.hits());
+                metrics.add(MiniTexturePacker.STAGE, "cacheMisses", cache.misses());
+            });
+        }
+        if (textureAtlas != null) {
+            // rewrites models of every namespace, but only takes textures of ours
+            String textures = "output/assets/" + namespace + "/textures/";
+            pipeline.add("atlas", List.of("patch/assets/*/models/", "output/assets/*/models/", textures),
+                    List.of("output/assets/*/models/", textures), textureAtlas::process);
+        }
+        addModelStages(pipeline);
+        addLangStage(pipeline);
+        if (!pipeline.run()) {
+            failed = true;
+        }
+        if (minifier != null) {
+            minifier.report();
+        }
+    }
+
+    // the model check only reads, so it runs next to the packer. The model creator waits for it and for the packer
+    // and the atlas, it writes the item templates they wrote before it
+    private void addModelStages(Pipeline pipeline) {
+        if (validator != null) {
+            pipeline.add("model check", List.of("original/assets/", "patch/assets/", "models.cache"), List.of("models.cache", "model-report.txt"),
+                    validator::process);
+        }
+        List<String> mappings = WRITTEN_TO_PATCH.stream().map(name -> "patch/" + name).collect(Collectors.toList());
+        List<String> reads = new ArrayList<>(mappings);
+        reads.add("patch/assets/*/models/");
+        reads.add("model-report.txt");
+        List<String> writes = new ArrayList<>(mappings);
+        writes.add("output/assets/minecraft/models/item/");
+        pipeline.add(MiniModelCreator.STAGE, reads, writes, modelCreator::process);
+    }
+
+    // merges into the lang files the packer wrote, nothing else touches those
+    private void addLangStage(Pipeline pipeline) {
+        pipeline.add(MiniLanguageHandler.STAGE, List.of("original/assets/minecraft/lang/", "patch/lang.json", "patch/lang/", "asset-index/",
+                "output/assets/minecraft/lang/"), List.of("output/assets/minecraft/lang/"), languageHandler::process);
+    }
+
+    private void report() {
+        if (directory != null) {
+            directory.drainCopies().forEach((strategy, count) -> {
+                if (count > 0) {
+                    metrics.add(MiniTexturePacker.STAGE, "copies." + strategy.name().toLowerCase(), count);
+                }
+            });
+        }
+        if (buildReportPath != null) {
+            metrics.write(Path.of(buildReportPath));
+        }
+        if (summary) {
+            metrics.printSummary();
+        }
+    }
+
+    private void watch(Path mainDir, Path patch, PackOutput output) {
+        if (!(output instanceof DirectoryOutput) || patch.getFileSystem() != FileSystems.getDefault()) {
+            System.out.println("Watch mode needs a patch folder and an output folder, not watching");
+            return;
+        }
+        System.out.println("Watching " + patch + " for changes, stop with ctrl+c");
+        try (PatchWatcher watcher = new PatchWatcher(patch)) {
+            while (true) {
+                Set<String> changed = watcher.next();
+                long start = System.nanoTime();
+                metrics.reset();
+                if (changed == null) {
+                    System.out.println("Lost track of what changed, rebuilding everything");
+                    build(mainDir);
+                } else {
+                    changed.removeAll(WRITTEN_TO_PATCH);
+                    if (changed.isEmpty()) {
+                        continue;
+                    }
+                    System.out.println("Changed: " + String.join(", ", changed));
+                    rebuild(mainDir, changed);
+                }
+                System.out.println("Rebuilt in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+                report();
+            }
+        } catch (IOException e) {
+            System.out.println("Error while watching " + patch + ": " + e.getClass().getName() + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // only what the changed files affect, names are relative to patch
+    private void rebuild(Path mainDir, Set<String> changed) {
+        Set<String> assets = changed.stream()
+                .filter(name -> name.startsWith("assets/") || name.equals("pack.mcmeta") || name.equals("pack.png"))
+                .collect(Collectors.toCollection(TreeSet::new));
+        boolean models = changed.stream().anyMatch(name -> name.matches("assets/[^/]+/models/.*"));
+        boolean lang = changed.stream().anyMatch(name -> name.equals("lang.json") || name.startsWith("lang/") || name.startsWith("assets/minecraft/lang/"));
+        // the atlas rewrites models, there is no undoing that for single files
+        if (textureAtlas != null || !packer.knows(assets)) {
+            build(mainDir);
+            return;
+        }
+        if (lang) {
+            // back to the lang files of original and patch, the handler merges into what is there
+            assets.addAll(packer.names("assets/minecraft/lang/"));
+            assets.addAll(languageHandler.written());
+        }
+        Pipeline pipeline = new Pipeline(metrics);
+        if (!assets.isEmpty()) {
+            pipeline.add(MiniTexturePacker.STAGE, PACKER_READS, PACKER_WRITES, () -> packer.update(assets));
+        }
+        if (models) {
+            addModelStages(pipeline);
+        }
+        if (lang) {
+            addLangStage(pipeline);
+        }
+        if (!pipeline.run()) {
+            failed = true;
+        }
+    }
+
+    private PackOutput createOutput(Path mainDir) throws IOException {
+        if (zipPath != null) {
+            return new ZipOutput(Path.of(zipPath));
+        }
+        directory = new DirectoryOutput(mainDir.resolve("output"));
+        directory.setCopyStrategy(copyStrategy);
+        directory.setLog(packerLog);
+        if (inMemory && (incremental || watch)) {
+            System.out.println("Incremental builds and watch mode work on the output folder, ignoring --in-memory");
+            return directory;
+        }
+        return inMemory ? new MemoryOutput(directory) : directory;
+    }
+
+    private AssetIndex loadAssetIndex(Path mainDir) {
+        Path file = assetIndexPath != null ? Path.of(assetIndexPath) : AssetIndex.defaultFile(mainDir, gameVersion);
+        AssetIndex assetIndex = new AssetIndex(file, gameVersion);
+        if (refreshAssetIndex) {
+            System.out.print("Downloading asset index for " + gameVersion + "... ");
+            try {
+                assetIndex.refresh();
+                System.out.println("Done!");
+            } catch (IOException e) {
+                System.out.println("Error while downloading asset index: " + e.getClass().getName() + ": " + e.getMessage());
+            }
+        }
+        return assetIndex;
+    }
+
+    private ImageTransforms loadTransforms(Path mainDir) {
+        Path file = transformsPath != null ? Path.of(transformsPath) : mainDir.resolve("transforms.json");
+        if (transformsPath == null && !Files.isRegularFile(file)) {
+            return ImageTransforms.none();
+        }
+        System.out.print("Loading image transforms... ");
+        try {
+            ImageTransforms transforms = ImageTransforms.load(file);
+            System.out.println("Loaded " + transforms.size() + " rules!");
+            return transforms;
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Error while loading image transforms from " + file + ": " + e.getClass().getName() + ": " + e.getMessage());
+            // the pack is built without them, which isn't the pack that was asked for
+            failed = true;
+            return ImageTransforms.none();
+        }
+    }
+
+    private Path findInput(Path mainDir, String path, String name) {
+        if (path != null) {
+            return Path.of(path);
+        }
+        // no folder? maybe there is a zipped one
+        Path folder = mainDir.resolve(name);
+        for (String extension : new String[]{".jar", ".zip"}) {
+            Path archive = mainDir.resolve(name + extension);
+            if (!Files.isDirectory(folder) && Files.isRegularFile(archive)) {
+                return archive;
+            }
+        }
+        return folder;
+    }
+
+    private Path open(Path path, List<PackArchive> archives) throws IOException {
+        if (!Files.isRegularFile(path) || !PackArchive.isArchive(path)) {
+            return path;
+        }
+        System.out.print("Opening " + path + "... ");
+        PackArchive archive = PackArchive.open(path);
+        archives.add(archive);
+        System.out.println("Done!");
+        return archive.root();
     }
 }
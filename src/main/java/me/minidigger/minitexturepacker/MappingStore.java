@@ -0,0 +1,269 @@
+package me.minidigger.minitexturepacker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// mappings.bin, the same mappings as mappings.csv in a form a server plugin can memory map and query without parsing
+// anything or creating an object per mapping. Lookups by name and by id are both a binary search, ids are stored as
+// sorted pairs and not as a table indexed by id, id ranges can be a billion apart.
+//
+// Layout, all ints big endian:
+//   header   magic, version, mapping count, type count, string pool offset
+//   entries  per mapping sorted by the utf-8 bytes of its name: name, path, subtypes (string offsets), id, type index
+//   ids      per mapping sorted by id: id, entry index
+//   types    per type sorted by name: name (string offset), offset of its ids, id count
+//   type ids per type the sorted ids
+//   strings  per string: byte length, utf-8 bytes
+public class MappingStore {
+
+    private static final int MAGIC = 0x4D54504D; // MTPM
+    private static final int VERSION = 2;
+    private static final int HEADER = 5 * 4;
+    private static final int ENTRY = 5 * 4;
+    private static final int ID = 2 * 4;
+    private static final int TYPE = 3 * 4;
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int typeCount;
+    private final int strings;
+    private final int idsStart;
+    private final int typesStart;
+
+    private MappingStore(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a mappings.bin of version " + VERSION);
+        }
+        count = buffer.getInt(8);
+        typeCount = buffer.getInt(12);
+        strings = buffer.getInt(16);
+        idsStart = HEADER + count * ENTRY;
+        typesStart = idsStart + count * ID;
+    }
+
+    public static MappingStore open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file)) {
+            // the mapping stays valid after the channel is closed and is released once the store is garbage collected
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new MappingStore(buffer);
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // the custom model data of the model with that name, like "item sword", or -1
+    public int id(String name) {
+        int entry = find(name.getBytes(StandardCharsets.UTF_8));
+        return entry < 0 ? -1 : buffer.getInt(entryOffset(entry) + 12);
+    }
+
+    // the model path relative to the models folder of the namespace, like "item|sword.json", or null
+    public String path(int id) {
+        int entry = entryOf(id);
+        return entry < 0 ? null : string(buffer.getInt(entryOffset(entry) + 4));
+    }
+
+    public String name(int id) {
+        int entry = entryOf(id);
+        return entry < 0 ? null : string(buffer.getInt(entryOffset(entry)));
+    }
+
+    public String type(int id) {
+        int entry = entryOf(id);
+        return entry < 0 ? null : string(buffer.getInt(typeOffset(buffer.getInt(entryOffset(entry) + 16))));
+    }
+
+    // the pull stages of a bow, sorted
+    public String[] subTypes(int id) {
+        int entry = entryOf(id);
+        if (entry < 0) {
+            return null;
+        }
+        String subTypes = string(buffer.getInt(entryOffset(entry) + 8));
+        return subTypes.isEmpty() ? new String[0] : subTypes.split("\\|");
+    }
+
+    // all ids of a type, sorted
+    public int[] ids(String type) {
+        byte[] key = type.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = typeCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int compared = compare(buffer.getInt(typeOffset(middle)), key);
+            if (compared < 0) {
+                low = middle + 1;
+            } else if (compared > 0) {
+                high = middle - 1;
+            } else {
+                int offset = buffer.getInt(typeOffset(middle) + 4);
+                int[] ids = new int[buffer.getInt(typeOffset(middle) + 8)];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = buffer.getInt(offset + i * 4);
+                }
+                return ids;
+            }
+        }
+        return new int[0];
+    }
+
+    private int entryOffset(int index) {
+        return HEADER + index * ENTRY;
+    }
+
+    private int typeOffset(int index) {
+        return typesStart + index * TYPE;
+    }
+
+    private int entryOf(int id) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int compared = Integer.compare(buffer.getInt(idsStart + middle * ID), id);
+            if (compared < 0) {
+                low = middle + 1;
+            } else if (compared > 0) {
+                high = middle - 1;
+            } else {
+                return buffer.getInt(idsStart + middle * ID + 4);
+            }
+        }
+        return -1;
+    }
+
+    private int find(byte[] name) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int compared = compare(buffer.getInt(entryOffset(middle)), name);
+            if (compared < 0) {
+                low = middle + 1;
+            } else if (compared > 0) {
+                high = middle - 1;
+            } else {
+                // same names are sorted by id, the lowest one wins
+                while (middle > 0 && compare(buffer.getInt(entryOffset(middle - 1)), name) == 0) {
+                    middle--;
+                }
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    // compares the string in the pool with key byte by byte, unsigned like Arrays.compareUnsigned
+    private int compare(int string, byte[] key) {
+        int offset = strings + string;
+        int length = buffer.getInt(offset);
+        for (int i = 0; i < Math.min(length, key.length); i++) {
+            int compared = Integer.compare(buffer.get(offset + 4 + i) & 0xFF, key[i] & 0xFF);
+            if (compared != 0) {
+                return compared;
+            }
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    private String string(int string) {
+        int offset = strings + string;
+        byte[] bytes = new byte[buffer.getInt(offset)];
+        buffer.get(offset + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void write(Collection<MiniModelCreator.Mapping> mappings, Path file) throws IOException {
+        Map<String, Integer> pool = new HashMap<>();
+        ByteArrayOutputStream stringBytes = new ByteArrayOutputStream();
+
+        List<MiniModelCreator.Mapping> entries = new ArrayList<>(mappings);
+        entries.sort(Comparator.comparing((MiniModelCreator.Mapping m) -> m.name().getBytes(StandardCharsets.UTF_8), Arrays::compareUnsigned)
+                .thenComparingInt(MiniModelCreator.Mapping::id));
+
+        Map<String, List<Integer>> types = new TreeMap<>(Comparator.comparing((String t) -> t.getBytes(StandardCharsets.UTF_8), Arrays::compareUnsigned));
+        for (MiniModelCreator.Mapping mapping : entries) {
+            types.computeIfAbsent(mapping.type(), k -> new ArrayList<>()).add(mapping.id());
+        }
+        Map<String, Integer> typeIndices = new HashMap<>();
+        for (String type : types.keySet()) {
+            typeIndices.put(type, typeIndices.size());
+        }
+
+        int typeIds = types.values().stream().mapToInt(List::size).sum();
+        int typesStart = HEADER + entries.size() * (ENTRY + ID);
+        int typeIdsStart = typesStart + types.size() * TYPE;
+        int stringsStart = typeIdsStart + typeIds * 4;
+
+        ByteBuffer out = ByteBuffer.allocate(stringsStart);
+        out.putInt(MAGIC).putInt(VERSION).putInt(entries.size()).putInt(types.size()).putInt(stringsStart);
+        for (int i = 0; i < entries.size(); i++) {
+            MiniModelCreator.Mapping mapping = entries.get(i);
+            out.putInt(intern(mapping.name(), pool, stringBytes));
+            out.putInt(intern(mapping.path(), pool, stringBytes));
+            out.putInt(intern(String.join("|", mapping.subTypes().stream().sorted().toList()), pool, stringBytes));
+            out.putInt(mapping.id());
+            out.putInt(typeIndices.get(mapping.type()));
+        }
+        Integer[] byId = new Integer[entries.size()];
+        for (int i = 0; i < byId.length; i++) {
+            byId[i] = i;
+        }
+        Arrays.sort(byId, Comparator.comparingInt((Integer i) -> entries.get(i).id()));
+        for (int index : byId) {
+            out.putInt(entries.get(index).id());
+            out.putInt(index);
+        }
+        int offset = typeIdsStart;
+        for (Map.Entry<String, List<Integer>> type : types.entrySet()) {
+            out.putInt(intern(type.getKey(), pool, stringBytes));
+            out.putInt(offset);
+            out.putInt(type.getValue().size());
+            offset += type.getValue().size() * 4;
+        }
+        for (List<Integer> typeIdList : types.values()) {
+            typeIdList.stream().sorted().forEach(out::putInt);
+        }
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            // a write doesn't have to take the whole buffer, a short one would leave a truncated file behind
+            for (ByteBuffer buffer : new ByteBuffer[]{out.flip(), ByteBuffer.wrap(stringBytes.toByteArray())}) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        }
+        // a server might have the old one mapped right now, never change it in place
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static int intern(String string, Map<String, Integer> pool, ByteArrayOutputStream strings) {
+        return pool.computeIfAbsent(string, s -> {
+            int offset = strings.size();
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            strings.writeBytes(ByteBuffer.allocate(4).putInt(bytes.length).array());
+            strings.writeBytes(bytes);
+            return offset;
+        });
+    }
+}
@@ -0,0 +1,72 @@
+package me.minidigger.minitexturepacker;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// Keeps the whole pack in memory while the packer, model creator and lang handler work on it, so files that get
+// overwritten or read back by a later stage never hit the disk in between. On close everything is written to the
+// output folder in one go, sorted by name. Files that are copied unchanged are only remembered by their source path
+// and copied on close, only generated and transformed files are held as bytes.
+public class MemoryOutput implements PackOutput {
+
+    private final DirectoryOutput target;
+    // name -> Path to copy or byte[] to write
+    private final Map<String, Object> files = new ConcurrentSkipListMap<>();
+
+    public MemoryOutput(DirectoryOutput target) {
+        this.target = target;
+    }
+
+    @Override
+    public void copy(Path source, String name) {
+        files.put(name, source);
+    }
+
+    @Override
+    public void write(String name, byte[] data) {
+        files.put(name, data);
+    }
+
+    @Override
+    public boolean exists(String name) {
+        return files.containsKey(name);
+    }
+
+    @Override
+    public byte[] read(String name) throws IOException {
+        Object file = files.get(name);
+        if (file == null) {
+            throw new IOException("No file " + name + " in memory");
+        }
+        return file instanceof Path source ? Files.readAllBytes(source) : (byte[]) file;
+    }
+
+    @Override
+    public void delete(String name) {
+        files.remove(name);
+    }
+
+    @Override
+    public void close() throws IOException {
+        System.out.print("Writing " + files.size() + " files to " + target.root() + "... ");
+        target.clean();
+        for (Map.Entry<String, Object> file : files.entrySet()) {
+            if (file.getValue() instanceof Path source) {
+                target.copy(source, file.getKey());
+            } else {
+                target.write(file.getKey(), (byte[]) file.getValue());
+            }
+        }
+        target.close();
+        StringBuilder copies = new StringBuilder();
+        target.drainCopies().forEach((strategy, count) -> {
+            if (count > 0) {
+                copies.append(copies.length() == 0 ? " Copied " : ", ").append(count).append(" by ").append(strategy.name().toLowerCase());
+            }
+        });
+        System.out.println("Done!" + copies);
+    }
+}
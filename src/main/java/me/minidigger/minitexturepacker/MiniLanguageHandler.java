@@ -2,107 +2,170 @@ package me.minidigger.minitexturepacker;
 
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONWriter;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.net.URL;
+import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class MiniLanguageHandler {
 
-    private Path patch;
-    private Path output;
+    // what this shows up as in the build metrics
+    static final String STAGE = "lang";
 
-    private String assetIndex = "https://launchermeta.mojang.com/v1/packages/e5af543d9b3ce1c063a97842c38e50e29f961f00/1.17.json";
+    private Path original;
+    private Path patch;
+    private PackOutput output;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private AssetIndex assetIndex;
+    private final Set<String> written = ConcurrentHashMap.newKeySet();
+    private BuildMetrics metrics = new BuildMetrics();
+    private PrintStream log = System.out;
 
-    public MiniLanguageHandler(Path patch, Path output) {
+    public MiniLanguageHandler(Path original, Path patch, PackOutput output, AssetIndex assetIndex) {
+        this.original = original;
         this.patch = patch;
         this.output = output;
+        this.assetIndex = assetIndex;
+    }
+
+    public void setLog(PrintStream log) {
+        this.log = log;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public void setMetrics(BuildMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // the lang files the last run wrote, watch mode needs to put them back before merging again
+    public Set<String> written() {
+        return Set.copyOf(written);
     }
 
     public void process() {
-        System.out.print("Writing lang injections... ");
-        Path outputLangFolder = output.resolve("assets/minecraft/lang/");
-        JSONObject assets;
+        log.print("Writing lang injections... ");
+        String outputLangFolder = "assets/minecraft/lang/";
+        Set<String> locales;
+        Map<String, Object> defaults;
+        Map<String, Map<String, Object>> perLocale;
         try {
-            assets = readJsonFromUrl(assetIndex);
-        } catch (IOException e) {
-            System.err.println("Can't download assets!");
-            e.printStackTrace();
+            locales = new TreeSet<>(readLocales());
+        } catch (IOException | JSONException e) {
+            log.println("Can't read asset index!");
+            e.printStackTrace(log);
             return;
         }
+        try {
+            defaults = readInjections(patch.resolve("lang.json"));
+            perLocale = readLocaleInjections(patch.resolve("lang"));
+            // a locale mojang doesn't ship can still be added from patch/lang
+            locales.addAll(perLocale.keySet());
+        } catch (IOException | JSONException e) {
+            log.println("Can't read lang injections!");
+            e.printStackTrace(log);
+            return;
+        }
+        written.clear();
         AtomicInteger count = new AtomicInteger();
         AtomicInteger existing = new AtomicInteger();
-        assets.getJSONObject("objects")
-                .keySet()
-                .stream()
-                .filter(k -> k.startsWith("minecraft/lang/"))
-                .map(k -> k.replace("minecraft/lang/", ""))
-                .forEach(filename -> {
+        try (CopyScheduler scheduler = new CopyScheduler(threads, log)) {
+            for (String locale : locales) {
+                scheduler.submitCpu(() -> {
+                    String outputFile = outputLangFolder + locale + ".json";
                     try {
-                        Path outputFile = outputLangFolder.resolve(filename);
                         JSONObject json = new JSONObject();
-                        if (Files.isRegularFile(outputFile)) {
+                        if (output.exists(outputFile)) {
                             // we already had a file, read that
-                            json = readJsonFromPath(outputFile);
+                            byte[] data = output.read(outputFile);
+                            json = new JSONObject(new String(data, StandardCharsets.UTF_8));
+                            metrics.add(STAGE, BuildMetrics.BYTES_READ, data.length);
                             existing.incrementAndGet();
                         }
 
-                        merge(json);
-                        writeJsonToPath(json, outputFile);
+                        merge(json, defaults);
+                        merge(json, perLocale.getOrDefault(locale, Map.of()));
+                        byte[] data = json.toString().getBytes(StandardCharsets.UTF_8);
+                        output.write(outputFile, data);
+                        written.add(outputFile);
+                        metrics.add(STAGE, BuildMetrics.FILES, 1);
+                        metrics.add(STAGE, BuildMetrics.BYTES_WRITTEN, data.length);
                         count.incrementAndGet();
-                    } catch (IOException e) {
-                        System.err.println("Error while processing lang asset " + filename);
-                        e.printStackTrace();
+                    } catch (IOException | JSONException e) {
+                        log.println("Error while processing lang asset " + outputFile);
+                        metrics.add(STAGE, BuildMetrics.ERRORS, 1);
+                        e.printStackTrace(log);
                     }
                 });
+            }
+            scheduler.await();
+        }
 
-        System.out.println("Wrote " + count.get() + " lang files, found " + existing.get() + " existing files!");
+        log.println("Wrote " + count.get() + " lang files, found " + existing.get() + " existing files!");
     }
 
-    private void merge(JSONObject json) throws IOException {
-        JSONObject injection = readJsonFromPath(patch.resolve("lang.json"));
-        for (String key : injection.keySet()) {
-            json.put(key, injection.get(key));
+    // locale names like en_us
+    private Set<String> readLocales() throws IOException {
+        Set<String> locales = assetIndex.locales(log);
+        if (locales != null) {
+            return locales;
+        }
+        // without an index we only know the languages the original pack has, the client jar only has en_us
+        log.print("No asset index, only using the lang files of original... ");
+        Path langDir = original.resolve("assets").resolve("minecraft").resolve("lang");
+        if (!Files.isDirectory(langDir)) {
+            return Set.of();
+        }
+        try (Stream<Path> files = Files.list(langDir)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(".json"))
+                    .map(name -> name.substring(0, name.length() - ".json".length()))
+                    .collect(Collectors.toSet());
         }
     }
 
-    private String readAll(Reader rd) throws IOException {
-        StringBuilder sb = new StringBuilder();
-        int cp;
-        while ((cp = rd.read()) != -1) {
-            sb.append((char) cp);
+    private Map<String, Object> readInjections(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return Map.of();
         }
-        return sb.toString();
+        return Collections.unmodifiableMap(readJsonFromPath(file).toMap());
     }
 
-    private JSONObject readJsonFromUrl(String url) throws IOException, JSONException {
-        try (InputStream is = new URL(url).openStream()) {
-            BufferedReader rd = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
-            String jsonText = readAll(rd);
-            return new JSONObject(jsonText);
+    // patch/lang/<locale>.json, applied on top of lang.json for just that locale
+    private Map<String, Map<String, Object>> readLocaleInjections(Path dir) throws IOException {
+        Map<String, Map<String, Object>> injections = new HashMap<>();
+        if (!Files.isDirectory(dir)) {
+            return injections;
         }
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".json")) {
+                    injections.put(name.substring(0, name.length() - ".json".length()), readInjections(file));
+                }
+            }
+        }
+        return injections;
     }
 
-    private JSONObject readJsonFromPath(Path path) throws IOException, JSONException {
-        try (BufferedReader rd = Files.newBufferedReader(path)) {
-            String jsonText = readAll(rd);
-            return new JSONObject(jsonText);
-        }
+    private void merge(JSONObject json, Map<String, Object> injection) {
+        injection.forEach(json::put);
     }
 
-    private void writeJsonToPath(JSONObject object, Path path) throws IOException, JSONException {
-        try (BufferedWriter br = Files.newBufferedWriter(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
-            object.write(br);
-        }
+    private JSONObject readJsonFromPath(Path path) throws IOException, JSONException {
+        return new JSONObject(Files.readString(path));
     }
 }
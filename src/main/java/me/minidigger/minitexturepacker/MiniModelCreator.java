@@ -2,12 +2,15 @@ package me.minidigger.minitexturepacker;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
@@ -18,9 +21,8 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+import org.json.JSONException;
 
 public class MiniModelCreator {
 
@@ -31,38 +33,115 @@ public class MiniModelCreator {
         }
     }
 
+    // what the item model templates need of a mapping, grouped by type and sorted by id once for all templates
+    record IndexedMapping(int id, String location, String[] subTypes) {
+    }
+
+    private static final String MARKER = "%mini_model_creator_marker%";
+    // bow stages are sorted by their pull, not as text, so 100 comes after 90
+    private static final Comparator<String> SUB_TYPE_ORDER = Comparator
+            .comparingInt((String subType) -> !subType.isEmpty() && subType.chars().allMatch(Character::isDigit) ? Integer.parseInt(subType) : Integer.MAX_VALUE)
+            .thenComparing(Comparator.naturalOrder());
+
+    // what this shows up as in the build metrics
+    static final String STAGE = "model creator";
+
     private static final String S = File.separator;
     private static final String mappingFileName = "mappings.csv";
+    private static final String mappingStoreFileName = "mappings.bin";
+    private static final String freedIdsFileName = "freed-ids.csv";
 
     private final Path input;
-    private final Path output;
+    private final PackOutput output;
     private final String namespace;
     private final Map<String, String> itemsToOverride;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private Map<String, IdAllocator.Range> idRanges = Map.of();
+    private List<IdAllocator.Range> reservedIds = List.of();
+    private Duration reuseIdsAfter;
+    private boolean compact;
+    private BuildMetrics metrics = new BuildMetrics();
+    private PrintStream log = System.out;
 
-    public MiniModelCreator(Path input, Path output, String namespace, Map<String, String> itemsToOverride) {
+    public MiniModelCreator(Path input, PackOutput output, String namespace, Map<String, String> itemsToOverride) {
         this.input = input;
         this.output = output;
         this.namespace = namespace;
         this.itemsToOverride = itemsToOverride;
     }
 
+    public void setLog(PrintStream log) {
+        this.log = log;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public void setIdRanges(Map<String, IdAllocator.Range> idRanges) {
+        this.idRanges = idRanges;
+    }
+
+    public void setReservedIds(List<IdAllocator.Range> reservedIds) {
+        this.reservedIds = reservedIds;
+    }
+
+    // ids of models that are gone are handed out again after this long, null keeps them forever
+    public void setReuseIdsAfter(Duration reuseIdsAfter) {
+        this.reuseIdsAfter = reuseIdsAfter;
+    }
+
+    public void setMetrics(BuildMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // item model files without any whitespace, they can have tens of thousands of overrides
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+    }
+
     public void process() {
         Path modelDir = input.resolve("assets" + S + namespace + S + "models");
         List<Path> models = findModels(modelDir);
 
         Path mappingFile = input.resolve(mappingFileName);
         Map<String, Mapping> mapping = loadMappings(mappingFile);
-        AtomicInteger nextId = new AtomicInteger(findNextId(mapping));
-        deduplicateMappings(mapping, nextId);
-        processMappings(modelDir, models, mapping, nextId);
+        IdAllocator ids = new IdAllocator(idRanges, reservedIds, reuseIdsAfter != null);
+        deduplicateMappings(mapping, ids);
+        if (reuseIdsAfter != null) {
+            releaseRemovedModels(modelDir, mapping, ids, input.resolve(freedIdsFileName));
+        }
+        processMappings(modelDir, models, mapping, ids);
         writeMappings(mapping, mappingFile);
+        metrics.add(STAGE, "models", models.size());
+        metrics.add(STAGE, "mappings", mapping.size());
 
-        for (var entry : itemsToOverride.entrySet()) {
-            copyItemAndWriteModels(mapping, entry.getKey(), entry.getValue());
+        Map<String, IndexedMapping[]> index = indexMappings(mapping);
+        try (CopyScheduler scheduler = new CopyScheduler(threads, log)) {
+            for (var entry : itemsToOverride.entrySet()) {
+                scheduler.submitCpu(() -> copyItemAndWriteModels(index.getOrDefault(entry.getKey(), new IndexedMapping[0]), entry.getKey(), entry.getValue()));
+            }
+            scheduler.await();
         }
     }
 
-    private void processMappings(Path modelDir, List<Path> models, Map<String, Mapping> mappings, AtomicInteger nextId) {
+    private Map<String, IndexedMapping[]> indexMappings(Map<String, Mapping> mappings) {
+        Map<String, List<IndexedMapping>> byType = new HashMap<>();
+        mappings.forEach((path, mapping) -> {
+            String location = namespace + ":" + path.replace("|", "/").replace(".json", "");
+            String[] subTypes = mapping.subTypes().stream().sorted(SUB_TYPE_ORDER).toArray(String[]::new);
+            byType.computeIfAbsent(mapping.type(), k -> new ArrayList<>()).add(new IndexedMapping(mapping.id(), location, subTypes));
+        });
+        Map<String, IndexedMapping[]> index = new HashMap<>();
+        byType.forEach((type, list) -> {
+            IndexedMapping[] sorted = list.toArray(new IndexedMapping[0]);
+            Arrays.sort(sorted, Comparator.comparingInt(IndexedMapping::id));
+            index.put(type, sorted);
+        });
+        return index;
+    }
+
+    private void processMappings(Path modelDir, List<Path> models, Map<String, Mapping> mappings, IdAllocator ids) {
         Map<String, Set<String>> cache = new HashMap<>();
         models.forEach(model -> {
             Path newPath = modelDir.relativize(model);
@@ -95,30 +174,33 @@ public class MiniModelCreator {
                     return;
                 }
 
-                int id = nextId.incrementAndGet();
-                System.out.println("Creating new mapping for new model " + name + " with mapping " + newPath + ": " + id + " using type " + type);
+                int id = ids.allocate(type);
+                log.println("Creating new mapping for new model " + name + " with mapping " + newPath + ": " + id + " using type " + type);
+                metrics.add(STAGE, "newMappings", 1);
                 Set<String> subtypes = Optional.ofNullable(cache.remove(path)).orElse(new HashSet<>());
                 mappings.put(path, new Mapping(name, path, id, type, subtypes));
             }
         });
 
         if (!cache.isEmpty()) {
-            System.err.println("Something is wrong in the setup of " + String.join(",", cache.keySet()));
+            log.println("Something is wrong in the setup of " + String.join(",", cache.keySet()));
         }
     }
 
     private void writeMappings(Map<String, Mapping> mappings, Path mappingFile) {
-        System.out.print("Writing mappings... ");
+        log.print("Writing mappings... ");
         try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(mappingFile))) {
             mappings.forEach((path, mapping) -> writer.println(mapping.csv()));
-            System.out.println("Done!");
-        } catch (IOException ex) {
-            System.out.println("Error while writing mappings: " + ex.getClass().getSimpleName() + ": " + ex.getMessage());
+            // the same for server plugins that need to look up ids fast, see MappingStore
+            MappingStore.write(mappings.values(), mappingFile.resolveSibling(mappingStoreFileName));
+            log.println("Done!");
+        } catch (IOException | RuntimeException ex) {
+            log.println("Error while writing mappings: " + ex.getClass().getSimpleName() + ": " + ex.getMessage());
         }
     }
 
     private Map<String, Mapping> loadMappings(Path mappingFile) {
-        System.out.print("Loading mappings... ");
+        log.print("Loading mappings... ");
         Map<String, Mapping> mappings = new TreeMap<>();
         try {
             Files.readAllLines(mappingFile).forEach(line -> {
@@ -131,36 +213,81 @@ public class MiniModelCreator {
 
                 mappings.put(path, new Mapping(name, path, id, type, subTypes));
             });
-            System.out.println("Loaded " + mappings.size() + " mappings!");
+            log.println("Loaded " + mappings.size() + " mappings!");
         } catch (IOException ex) {
-            System.out.println("Error while loading mappings: " + ex.getClass().getSimpleName() + ": " + ex.getMessage());
+            log.println("Error while loading mappings: " + ex.getClass().getSimpleName() + ": " + ex.getMessage());
         }
 
         return mappings;
     }
 
-    private void deduplicateMappings(Map<String, Mapping> mappings, AtomicInteger nextId) {
-        Set<Integer> ids = new HashSet<>();
-        for (String key : new HashSet<>(mappings.keySet())) {
-            Mapping old = mappings.get(key);
-            int id = old.id();
-            if (ids.contains(id)) {
-                int newId = nextId.incrementAndGet();
-                System.out.println("found duplicate id for " + id + ", assigning new id " + newId + " (" + key +")...");
-                mappings.remove(key);
-                mappings.put(key, new Mapping(old.name(), old.path(), newId, old.type(), old.subTypes()));
-            } else {
-                ids.add(id);
+    private void deduplicateMappings(Map<String, Mapping> mappings, IdAllocator ids) {
+        // claim everything first, so a new id can't collide with one that is loaded later
+        List<String> duplicates = new ArrayList<>();
+        mappings.forEach((key, mapping) -> {
+            if (!ids.claim(mapping.id())) {
+                duplicates.add(key);
+                return;
             }
+            String conflict = ids.conflict(mapping.id(), mapping.type());
+            if (conflict != null) {
+                // changing the id would break every item that already uses it, that is up to whoever reserved it
+                log.println("Warning: " + key + " has id " + mapping.id() + ", which is " + conflict + ", keeping it");
+            }
+        });
+        for (String key : duplicates) {
+            Mapping old = mappings.get(key);
+            int newId = ids.allocate(old.type());
+            log.println("found duplicate id for " + old.id() + ", assigning new id " + newId + " (" + key +")...");
+            mappings.put(key, new Mapping(old.name(), old.path(), newId, old.type(), old.subTypes()));
         }
     }
 
-    private int findNextId(Map<String, Mapping> mappings) {
-        return mappings.values().stream().mapToInt(Mapping::id).max().orElse(1);
+    // mappings whose model is gone wait in freed-ids.csv until the grace period is over, then their id is free again
+    private void releaseRemovedModels(Path modelDir, Map<String, Mapping> mappings, IdAllocator ids, Path freedFile) {
+        log.print("Checking for removed models... ");
+        Map<String, Long> freed = new TreeMap<>();
+        try {
+            if (Files.exists(freedFile)) {
+                for (String line : Files.readAllLines(freedFile)) {
+                    String[] s = line.split(",");
+                    freed.put(s[0], Long.parseLong(s[2]));
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            log.println("Error while loading freed ids: " + ex.getClass().getSimpleName() + ": " + ex.getMessage());
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        int released = 0;
+        for (String path : new ArrayList<>(mappings.keySet())) {
+            if (Files.exists(modelDir.resolve(path.replace("|", "/")))) {
+                // it came back
+                freed.remove(path);
+                continue;
+            }
+            long since = freed.computeIfAbsent(path, k -> now);
+            if (now - since >= reuseIdsAfter.toMillis()) {
+                Mapping removed = mappings.remove(path);
+                ids.release(removed.id());
+                freed.remove(path);
+                released++;
+            }
+        }
+        freed.keySet().retainAll(mappings.keySet());
+
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(freedFile))) {
+            // path, id, when we first noticed the model is gone
+            freed.forEach((path, since) -> writer.println(path + "," + mappings.get(path).id() + "," + since));
+            log.println("Released " + released + " ids, " + freed.size() + " more are waiting for their grace period!");
+        } catch (IOException ex) {
+            log.println("Error while writing freed ids: " + ex.getClass().getSimpleName() + ": " + ex.getMessage());
+        }
     }
 
     private List<Path> findModels(Path modelDir) {
-        System.out.print("Scanning for models... ");
+        log.print("Scanning for models... ");
         List<Path> models = new ArrayList<>();
         try {
             // walk thru all models
@@ -173,75 +300,104 @@ public class MiniModelCreator {
                     return FileVisitResult.CONTINUE;
                 }
             });
-            System.out.println("Found " + models.size() + "!");
+            log.println("Found " + models.size() + "!");
         } catch (IOException e) {
-            System.out.println("Error while scanning for models in " + modelDir);
-            e.printStackTrace();
+            log.println("Error while scanning for models in " + modelDir);
+            e.printStackTrace(log);
         }
         return models;
     }
 
-    private void copyItemAndWriteModels(Map<String, Mapping> mappings, String type, String itemToOverride) {
+    private void copyItemAndWriteModels(IndexedMapping[] mappings, String type, String itemToOverride) {
         Path inputFile = input.resolve("assets" + S + "minecraft" + S + "models" + S + "item" + S + itemToOverride + ".json");
-        Path outputFile = output.resolve("assets" + S + "minecraft" + S + "models" + S + "item" + S + itemToOverride + ".json");
-        if (!Files.isDirectory(outputFile.getParent())) {
-            System.out.print("Creating output dir... ");
-            try {
-                Files.createDirectories(outputFile.getParent());
-                System.out.println("Done!");
-            } catch (IOException e) {
-                System.out.println("Error while creating dir " + outputFile.getParent() + ": " + e.getClass().getSimpleName() + ":" + e.getMessage());
-            }
-        }
-        System.out.print("Writing item models of type " + type + " to template file " + itemToOverride + ".json... ");
-        AtomicBoolean foundMarker = new AtomicBoolean(false);
-        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(outputFile))) {
+        String outputFile = "assets/minecraft/models/item/" + itemToOverride + ".json";
+        // items are written concurrently, so every message is printed as one line
+        String message = "Writing item models of type " + type + " to template file " + itemToOverride + ".json... ";
+        try {
             // find template
-            List<String> lines;
+            String template;
             if (!Files.exists(inputFile)) {
                 if (type.equals("bow")) {
-                    lines = Arrays.asList(Templates.BOW.split("\n"));
+                    template = Templates.BOW;
                 } else {
-                    System.err.println("Template file for type " + type + " doesn't exist!");
+                    log.println(message);
+                    log.println("Template file for type " + type + " doesn't exist!");
                     return;
                 }
             } else {
-                lines = Files.readAllLines(inputFile);
+                template = Files.readString(inputFile);
             }
 
             // write
-            lines.forEach(line -> {
-                if (line.contains("%mini_model_creator_marker%")) {
-                    foundMarker.set(true);
-                    mappings.entrySet().stream()
-                            .filter(e -> e.getValue().type().equals(type))
-                            .sorted(Comparator.comparing(e -> e.getValue().id()))
-                            .forEach(entry -> {
-                        String properPath = namespace + ":" + entry.getKey().replace("|", "/").replace(".json", "");
-                        if (type.equals("bow")) {
-                            writer.printf(Templates.BOW_PREDICATE, entry.getValue().id, 0, 0.0, properPath);
-                            // these need to be sorted, thanks mojang https://bugs.mojang.com/browse/MC-158872 https://www.reddit.com/r/Minecraft/comments/fws0gw/custom_bow_with_custommodeldata/
-                            entry.getValue().subTypes()
-                                    .stream().sorted()
-                                    .forEach(subType -> writer.printf(Templates.BOW_PREDICATE, entry.getValue().id, 1, Integer.parseInt(subType) / 100d, properPath + "." + subType));
-                        } else {
-                            writer.printf(Templates.PREDICATE, entry.getValue().id, properPath);
-                        }
-                    });
-
-                    writer.println("    { \"predicate\": {\"custom_model_data\":  13371337}, \"model\": \"dyescape:items/steel_mace\"}"); // dummy to fix trailing semicolon
+            StringBuilder result = new StringBuilder(template.length() + mappings.length * (compact ? 80 : 120));
+            boolean foundMarker = writeTemplate(new JsonWriter(result, compact), JsonWriter.parse(template), mappings, type.equals("bow"));
+            byte[] data = result.toString().getBytes(StandardCharsets.UTF_8);
+            output.write(outputFile, data);
+            metrics.add(STAGE, "itemFiles", 1);
+            metrics.add(STAGE, BuildMetrics.BYTES_WRITTEN, data.length);
+            if (!foundMarker) {
+                log.println(message + "Didn't find %mini_model_creator_marker%!");
+            } else {
+                log.println(message + "Done!");
+            }
+        } catch (IOException | JSONException ex) {
+            log.println(message + "Error while writing item models!");
+            ex.printStackTrace(log);
+        }
+    }
+
+    // the template with the overrides in place of the marker, true if there was a marker
+    private boolean writeTemplate(JsonWriter writer, Object value, IndexedMapping[] mappings, boolean bow) throws IOException {
+        boolean foundMarker = false;
+        if (value instanceof Map<?, ?> map) {
+            writer.beginObject();
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writer.name(entry.getKey().toString());
+                foundMarker |= writeTemplate(writer, entry.getValue(), mappings, bow);
+            }
+            writer.endObject();
+        } else if (value instanceof List<?> list) {
+            writer.beginArray();
+            for (Object element : list) {
+                if (MARKER.equals(element)) {
+                    writeOverrides(writer, mappings, bow);
+                    foundMarker = true;
                 } else {
-                    writer.println(line);
+                    foundMarker |= writeTemplate(writer, element, mappings, bow);
+                }
+            }
+            writer.endArray();
+        } else {
+            writer.value(value);
+        }
+        return foundMarker;
+    }
+
+    private void writeOverrides(JsonWriter writer, IndexedMapping[] mappings, boolean bow) throws IOException {
+        for (IndexedMapping mapping : mappings) {
+            if (bow) {
+                writeBowOverride(writer, mapping.id(), 0, 0, mapping.location());
+                // these need to be sorted, thanks mojang https://bugs.mojang.com/browse/MC-158872 https://www.reddit.com/r/Minecraft/comments/fws0gw/custom_bow_with_custommodeldata/
+                for (String subType : mapping.subTypes()) {
+                    writeBowOverride(writer, mapping.id(), 1, Integer.parseInt(subType) / 100d, mapping.location() + "." + subType);
                 }
-            });
-            if (!foundMarker.get()) {
-                System.out.println("Didn't find %mini_model_creator_marker%!");
             } else {
-                System.out.println("Done!");
+                writer.beginObject()
+                        .name("predicate").beginObject().name("custom_model_data").value(mapping.id()).endObject()
+                        .name("model").value(mapping.location())
+                        .endObject();
             }
-        } catch (IOException ex) {
-            System.out.println("Error while writing item models!");
-            ex.printStackTrace();
         }
     }
+
+    private void writeBowOverride(JsonWriter writer, int id, int pulling, double pull, String model) throws IOException {
+        writer.beginObject()
+                .name("predicate").beginObject()
+                .name("custom_model_data").value(id)
+                .name("pulling").value(pulling)
+                .name("pull").value(pull)
+                .endObject()
+                .name("model").value(model)
+                .endObject();
+    }
 }
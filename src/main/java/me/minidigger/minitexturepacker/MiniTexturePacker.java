@@ -1,255 +1,489 @@
 package me.minidigger.minitexturepacker;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Map;
-import com.beust.jcommander.Parameter;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class MiniTexturePacker {
 
-    private static final String S = File.separator;
+    // what this shows up as in the build metrics
+    static final String STAGE = "packer";
+
+    private static final List<String> FOLDERS = List.of("textures", "sounds", "optifine", "models", "blockstates", "font", "lang", "shaders", "icons", "particles", "texts");
 
     private final Path original;
     private final Path patch;
-    private final Path output;
+    private final PackOutput output;
+    private final List<PackArchive> archives = new ArrayList<>();
+
+    private boolean incremental;
+    private boolean delta;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private ImageTransforms transforms = ImageTransforms.none();
+    private ImageCache imageCache;
+    private PngOptimizer optimizer;
+    private JsonMinifier minifier;
+    private BuildMetrics metrics = new BuildMetrics();
+    private BuildManifest manifest;
+    private final AtomicInteger copied = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger vanilla = new AtomicInteger();
+    // files the last build or update couldn't copy
+    private int errors;
+    // what the last full build worked with, watch mode updates single files on top of that
+    private List<String> namespaces = List.of();
+    private ImageTransforms rules = ImageTransforms.none();
+    private OverlayIndex index;
+    private PrintStream log = System.out;
 
-    public MiniTexturePacker(Path original, Path patch, Path output) {
+    public MiniTexturePacker(Path original, Path patch, PackOutput output) {
         this.original = original;
         this.patch = patch;
         this.output = output;
     }
 
-    public void patch(float brightenFactor) {
-        cleanOutput();
-        copyMeta();
-        copyFolder("minecraft", "textures", brightenFactor);
-        copyFolder("minecraft", "sounds", 1);
-        copySoundsJson();
-        copyFolder("minecraft", "optifine", 1);
-        copyFolder("minecraft", "models", 1);
-        copyFolder("minecraft", "blockstates", 1);
-        copyFolder("minecraft", "font", 1);
-        copySplashes();
-        copyFolder("minecraft", "lang", 1);
-        copyFolder("minecraft", "shaders", 1);
-        copyFolder("minecraft", "icons", 1);
-        copyFolder("minecraft", "particles", 1);
-        copyFolder("minecraft", "texts", 1);
-        copyOtherNamespaces();
+    public void setLog(PrintStream log) {
+        this.log = log;
     }
 
-    private void cleanOutput() {
-        System.out.print("Cleaning output... ");
-        try {
-            Util.deleteDir(output);
-        } catch (IOException e) {
-            System.out.print("Error while cleaning output: " + e.getClass().getName() + ": " + e.getMessage());
-        }
-        try {
-            Files.createDirectories(output);
-            System.out.println("Done!");
-        } catch (IOException e) {
-            System.out.println("Error while creating output: " + e.getClass().getName() + ": " + e.getMessage());
-        }
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    // only ship what differs from original, which has to be the vanilla pack for that to make sense
+    public void setDelta(boolean delta) {
+        this.delta = delta;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public void setTransforms(ImageTransforms transforms) {
+        this.transforms = transforms;
     }
 
-    private void copyMeta() {
-        System.out.print("Copying meta... ");
-        for (String fileName : new String[]{"pack.mcmeta", "pack.png"}) {
-            copyFitting(fileName, original, patch, output, 1);
+    public void setImageCache(ImageCache imageCache) {
+        this.imageCache = imageCache;
+    }
+
+    public void setOptimizer(PngOptimizer optimizer) {
+        this.optimizer = optimizer;
+    }
+
+    public void setMetrics(BuildMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void setMinifier(JsonMinifier minifier) {
+        this.minifier = minifier;
+    }
+
+    // original or patch are read from this archive, lets us pass its entries to a zip output without recompressing
+    public void addArchive(PackArchive archive) {
+        archives.add(archive);
+    }
+
+    public void patch(float brightenFactor) {
+        resetCounters();
+        namespaces = findNamespaces();
+        rules = transforms.withBrighten(brightenFactor);
+        if (incremental && output instanceof DirectoryOutput directory) {
+            loadManifest(directory, rules, namespaces);
+        } else {
+            if (incremental) {
+                log.println("Incremental builds need an output folder, doing a full build");
+            }
+            cleanOutput();
+        }
+        long scan = System.nanoTime();
+        index = buildIndex(namespaces);
+        metrics.add(STAGE, "scanMillis", (System.nanoTime() - scan) / 1_000_000);
+        copyFiles(index, rules);
+        if (manifest != null) {
+            removeStaleOutputs();
+            saveManifest((DirectoryOutput) output);
         }
-        System.out.println("Done!");
     }
 
-    private void copySplashes() {
-        System.out.print("Copying splashes... ");
-        String name = "assets" + S + "minecraft" + S + "texts" + S + "splashes.txt";
-        Path splashes = patch.resolve(name);
-        if (Files.isRegularFile(splashes)) {
+    // copies just these files again, for watch mode. Names are relative to patch, files that are gone from patch
+    // come from original again or are removed from output
+    public void update(Collection<String> names) {
+        log.print("Updating " + names.size() + " files... ");
+        resetCounters();
+        for (String name : names) {
             try {
-                Files.createDirectories(output.resolve("assets" + S + "minecraft" + S + "texts"));
+                OverlayIndex.Entry entry = entry(patch, name, true);
+                OverlayIndex.Entry replaced = entry(original, name, false);
+                if (entry == null) {
+                    entry = replaced;
+                    replaced = null;
+                }
+                if (output.exists(name)) {
+                    output.delete(name);
+                }
+                if (manifest != null) {
+                    // copy records it again if it is still shipped
+                    manifest.forget(name);
+                }
+                if (entry == null || entry.tombstone()) {
+                    continue;
+                }
+                TransformChain chain = rules.chainFor(name);
+                if (delta && chain.isEmpty() && !entry.fromPatch() && !isPackMeta(name)) {
+                    continue;
+                }
+                copy(entry, chain, replaced);
             } catch (IOException e) {
-                System.out.println("Error creating texts folder: " + e.getClass().getName() + ": " + e.getMessage());
+                log.println("Error while updating " + name + ": " + e.getClass().getName() + ": " + e.getMessage());
+                errors++;
+            } catch (UncheckedIOException e) {
+                // copy said what went wrong already
+                errors++;
             }
-            try {
-                Files.copy(splashes, output.resolve(name));
-                System.out.println("Done!");
-            } catch (IOException e) {
-                System.out.println("Error while copying splashes: " + e.getClass().getName() + ": " + e.getMessage());
+        }
+        log.println(errors == 0 ? "Done!" : "Done with " + errors + " errors!");
+        // so the next incremental build knows what we copied in between
+        if (manifest != null) {
+            saveManifest((DirectoryOutput) output);
+        }
+    }
+
+    // every build counts on its own, watch mode runs many of them
+    private void resetCounters() {
+        errors = 0;
+        copied.set(0);
+        skipped.set(0);
+        vanilla.set(0);
+    }
+
+    public int errors() {
+        return errors;
+    }
+
+    // false if a name is in a namespace the last full build didn't know about, those need a full build
+    public boolean knows(Collection<String> names) {
+        for (String name : names) {
+            String[] parts = name.split("/");
+            if (parts.length > 2 && parts[0].equals("assets") && !parts[1].equals("minecraft") && !parts[1].startsWith(".") && !namespaces.contains(parts[1])) {
+                return false;
             }
+        }
+        return true;
+    }
+
+    // names of everything the last full build saw in that folder
+    public List<String> names(String folder) {
+        if (index == null) {
+            return List.of();
+        }
+        return index.all().stream().map(OverlayIndex.Entry::name).filter(name -> name.startsWith(folder)).collect(Collectors.toList());
+    }
+
+    private OverlayIndex.Entry entry(Path root, String name, boolean fromPatch) throws IOException {
+        Path file = root.resolve(name);
+        if (!isPackedFile(name, namespaces, fromPatch) || !Files.isRegularFile(file)) {
+            return null;
+        }
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        return new OverlayIndex.Entry(name, file, attributes.size(), attributes.lastModifiedTime().toMillis(), fromPatch);
+    }
+
+    private Path manifestFile(DirectoryOutput directory) {
+        return directory.root().resolveSibling(directory.root().getFileName() + ".manifest");
+    }
+
+    private void loadManifest(DirectoryOutput directory, ImageTransforms rules, List<String> namespaces) {
+        log.print("Loading manifest... ");
+        String config = BuildManifest.config(rules, namespaces);
+        manifest = BuildManifest.load(manifestFile(directory), config, log);
+        if (manifest == null || !Files.isDirectory(directory.root())) {
+            log.println("Missing or outdated, doing a clean build");
+            cleanOutput();
+            manifest = BuildManifest.empty(config);
         } else {
-            System.out.println("No splashes found");
+            log.println("Done!");
         }
     }
 
-    private void copySoundsJson() {
-        System.out.print("Copying sounds.json... ");
-        String name = "assets" + S + "minecraft" + S + "sounds.json";
-        Path splashes = patch.resolve(name);
-        if (Files.isRegularFile(splashes)) {
+    private void removeStaleOutputs() {
+        log.print("Removing stale outputs... ");
+        int removed = 0;
+        for (String name : manifest.staleOutputs()) {
             try {
-                Files.copy(splashes, output.resolve(name));
-                System.out.println("Done!");
+                if (output.exists(name)) {
+                    output.delete(name);
+                    removed++;
+                }
             } catch (IOException e) {
-                System.out.println("Error while copying sounds.json: " + e.getClass().getName() + ": " + e.getMessage());
+                log.println("Error while removing stale output " + name + ": " + e.getClass().getName() + ": " + e.getMessage());
             }
-        } else {
-            System.out.println("No sounds.json found");
         }
+        log.println("Removed " + removed + " files!");
     }
 
-    private void copyOtherNamespaces() {
-        System.out.println("Copying other namespaces... ");
+    private void saveManifest(DirectoryOutput directory) {
+        log.print("Writing manifest... ");
         try {
-            Files.list(patch.resolve("assets"))
-                    .filter(f -> !f.getFileName().toString().equals("minecraft"))
-                    .filter(f -> !f.getFileName().toString().startsWith("."))
-                    .forEach(f -> {
-                        copyFolder(f.getFileName().toString(), "", 1);
-                    });
-            System.out.println("ALL DONE!");
+            manifest.save(manifestFile(directory));
+            log.println("Copied " + copied.get() + " files, skipped " + skipped.get() + " unchanged files!");
         } catch (IOException e) {
-            System.out.println("Error while copying sounds.json: " + e.getClass().getName() + ": " + e.getMessage());
+            log.println("Error while writing manifest: " + e.getClass().getName() + ": " + e.getMessage());
         }
     }
 
-    // util shit
-
-    private void copyFolder(String namespace, String name, float brightenFactor) {
-        String nameThing = (name.length() > 0 ? name : namespace);
-        System.out.print("Creating " + nameThing + " folder... ");
-        if (brightenFactor != 1) {
-            System.out.print("Also brighten it with factor " + brightenFactor + "... ");
+    private void cleanOutput() {
+        if (!(output instanceof DirectoryOutput directory)) {
+            return;
         }
-        String folderName = "assets" + S + namespace + S + "" + name;
+        log.print("Cleaning output... ");
         try {
-            Files.createDirectories(output.resolve(folderName));
+            directory.clean();
+            log.println("Done!");
         } catch (IOException e) {
-            System.out.println("Error while creating " + nameThing + " folder: " + e.getClass().getName() + ": " + e.getMessage());
-            return;
+            log.println("Error while cleaning output: " + e.getClass().getName() + ": " + e.getMessage());
         }
-        System.out.println("Done");
-        System.out.print("Copying " + nameThing + "... ");
-        Path ogFolder = original.resolve(folderName);
-        try {
-            // copy over files from original, using patch files if they are there
-            if (Files.isDirectory(ogFolder)) {
-                Files.list(ogFolder).parallel().forEach(folder -> {
-                    if (Files.isDirectory(folder)) {
-                        copyFolder(folderName, folder, brightenFactor);
-                    } else if (Files.isRegularFile(folder)) {
-                        copyFitting(folder.getFileName().toString(), ogFolder, patch.resolve(folderName), output.resolve(folderName), brightenFactor);
-                    }
-                });
-            }
-            // copy over fully custom files
-            Path patchFolder = patch.resolve(folderName);
-            if (Files.isDirectory(patchFolder)) {
-                Path outputFolder = output.resolve(folderName);
-                if (!Files.isDirectory(outputFolder)) {
-                    try {
-                        Files.createDirectories(outputFolder);
-                    } catch (IOException e) {
-                        System.out.println("Error while creating " + outputFolder + " folder: " + e.getClass().getName() + ": " + e.getMessage());
-                    }
-                }
-                copyNewFiles(patchFolder, outputFolder, brightenFactor);
-            }
-            System.out.println("Done!");
+    }
+
+    private List<String> findNamespaces() {
+        try (Stream<Path> files = Files.list(patch.resolve("assets"))) {
+            return files.map(f -> f.getFileName().toString())
+                    .filter(f -> !f.equals("minecraft"))
+                    .filter(f -> !f.startsWith("."))
+                    .sorted()
+                    .collect(Collectors.toList());
         } catch (IOException e) {
-            System.out.println("Error while listing files " + ogFolder + ": " + e.getClass().getName() + ": " + e.getMessage());
+            log.println("Error while listing namespaces: " + e.getClass().getName() + ": " + e.getMessage());
+            return List.of();
         }
     }
 
-    private void copyFolder(String folderPath, Path subFolder, float brightenFactor) {
-        // prepare output
-        String subFolderName = subFolder.getFileName().toString();
-        Path newOriginal = original.resolve(folderPath).resolve(subFolderName);
-        Path newPatch = patch.resolve(folderPath).resolve(subFolderName);
-        Path newOutput = output.resolve(folderPath).resolve(subFolderName);
+    private OverlayIndex buildIndex(List<String> namespaces) {
+        log.print("Scanning original and patch... ");
         try {
-            Files.createDirectories(newOutput);
+            OverlayIndex index = OverlayIndex.build(original, patch,
+                    name -> isPackedDir(name, namespaces),
+                    name -> isPackedFile(name, namespaces, false),
+                    name -> isPackedFile(name, namespaces, true));
+            log.println("Found " + index.size() + " files!");
+            return index;
         } catch (IOException e) {
-            System.out.println("Error while creating output files " + newOutput + ": " + e.getClass().getName() + ": " + e.getMessage());
+            log.println("Error while scanning files: " + e.getClass().getName() + ": " + e.getMessage());
+            // nothing got copied, the stages after us would only work on an empty output
+            throw new UncheckedIOException(e);
         }
-        // first iterate the files in orig
-        try {
-            Files.list(newOriginal).parallel().forEach(file -> {
-                if (Files.isDirectory(file)) {
-                    copyFolder(folderPath + "" + S + "" + subFolderName, file, brightenFactor);
-                } else if (Files.isRegularFile(file)) {
-                    copyFitting(file.getFileName().toString(), newOriginal, newPatch, newOutput, brightenFactor);
+    }
+
+    private void copyFiles(OverlayIndex index, ImageTransforms rules) {
+        List<OverlayIndex.Entry> files = index.winners();
+        log.print("Copying " + files.size() + " files... ");
+        if (!rules.isEmpty()) {
+            log.print("Also applying " + rules.size() + " image transform rules... ");
+        }
+        if (optimizer != null) {
+            log.print("Also optimizing pngs... ");
+        }
+        if (minifier != null) {
+            log.print("Also minifying json... ");
+        }
+        try (CopyScheduler scheduler = new CopyScheduler(threads, log)) {
+            for (OverlayIndex.Entry entry : files) {
+                TransformChain chain = rules.chainFor(entry.name());
+                OverlayIndex.Entry replaced = index.shadowed(entry.name());
+                if (delta && chain.isEmpty() && !entry.fromPatch() && !isPackMeta(entry.name())) {
+                    // the client has that one already
+                    vanilla.incrementAndGet();
+                    continue;
                 }
-            });
-        } catch (IOException e) {
-            System.out.println("Error while listing files in orig " + newOriginal + ": " + e.getClass().getName() + ": " + e.getMessage());
+                if (!chain.isEmpty() || optimizes(entry) || minifies(entry)) {
+                    scheduler.submitCpu(() -> copy(entry, chain, replaced));
+                } else {
+                    scheduler.submitIo(() -> copy(entry, chain, replaced));
+                }
+            }
+            // everything has to be written before the model creator and lang handler touch the output
+            scheduler.await();
+            errors = scheduler.errors();
+            log.println(errors == 0 ? "Done!" : "Done with " + errors + " errors!");
+        }
+        if (delta) {
+            log.println("Left out " + vanilla.get() + " files that are the same as in original");
+        }
+    }
+
+    // util shit
+
+    static boolean isPackedDir(String name, List<String> namespaces) {
+        if (name.isEmpty()) {
+            return true;
+        }
+        String[] parts = name.split("/");
+        if (!parts[0].equals("assets")) {
+            return false;
+        }
+        if (parts.length == 1) {
+            return true;
+        }
+        if (parts[1].equals("minecraft")) {
+            return parts.length == 2 || FOLDERS.contains(parts[2]);
+        }
+        return namespaces.contains(parts[1]);
+    }
+
+    static boolean isPackedFile(String name, List<String> namespaces, boolean fromPatch) {
+        if (name.equals("pack.mcmeta") || name.equals("pack.png")) {
+            return true;
+        }
+        if (name.equals("assets/minecraft/sounds.json")) {
+            // we only ever ship our own sounds.json
+            return fromPatch;
+        }
+        String[] parts = name.split("/");
+        if (parts.length < 3 || !parts[0].equals("assets")) {
+            return false;
+        }
+        if (parts[1].equals("minecraft")) {
+            return parts.length > 3 && FOLDERS.contains(parts[2]);
+        }
+        return namespaces.contains(parts[1]);
+    }
+
+    private boolean optimizes(OverlayIndex.Entry entry) {
+        return optimizer != null && entry.name().endsWith(".png");
+    }
+
+    private boolean minifies(OverlayIndex.Entry entry) {
+        return minifier != null && JsonMinifier.isJson(entry.name());
+    }
+
+    // everything that is done to the file, goes into the manifest and the cache key
+    private String recipe(OverlayIndex.Entry entry, TransformChain chain) {
+        if (minifies(entry)) {
+            return minifier.describe();
+        }
+        if (!optimizes(entry)) {
+            return chain.describe();
         }
-        // then copy new files from patch
-        copyNewFiles(newPatch, newOutput, brightenFactor);
+        return chain.isEmpty() ? optimizer.describe() : chain.describe() + "+" + optimizer.describe();
+    }
+
+    private static boolean isPackMeta(String name) {
+        return name.equals("pack.mcmeta") || name.equals("pack.png");
+    }
+
+    // size first, the hash only if we have to
+    private static boolean sameContent(OverlayIndex.Entry entry, OverlayIndex.Entry other) throws IOException {
+        return entry.size() == other.size() && Util.sha1(entry.source()).equals(Util.sha1(other.source()));
     }
 
-    private void copyNewFiles(Path newPatch, Path newOutput, float brightenFactor) {
+    private void copy(OverlayIndex.Entry entry, TransformChain chain, OverlayIndex.Entry replaced) {
+        long start = System.nanoTime();
+        String folder = Util.category(entry.name());
         try {
-            if (!Files.exists(newOutput)) {
-                Files.createDirectories(newOutput);
+            if (delta && chain.isEmpty() && replaced != null && !isPackMeta(entry.name()) && sameContent(entry, replaced)) {
+                vanilla.incrementAndGet();
+                metrics.add(STAGE, "sameAsOriginal", 1);
+                return;
             }
-
-            if (Files.exists(newPatch) && Files.isDirectory(newPatch)) {
-                Files.list(newPatch).parallel()
-                        .forEach(file -> {
-                            String fileName = file.getFileName().toString();
-                            if (Files.isDirectory(file)) {
-                                // if its a dir, we need to go one step deeper
-                                copyNewFiles(newPatch.resolve(fileName), newOutput.resolve(fileName), brightenFactor);
-                            } else if (Files.isRegularFile(file)) {
-                                // if its a file we can just copy, assuming its actually a new file
-                                if (!Files.isRegularFile(newOutput.resolve(fileName))) {
-                                    try {
-                                        // 0 file in patch? -> skip
-                                        if (Files.size(file) == 0) {
-                                            return;
-                                        }
-
-                                        Util.copyAndBrighten(newPatch.resolve(fileName), newOutput.resolve(fileName), brightenFactor);
-                                    } catch (IOException e) {
-                                        System.out.println("Error while coyping file " + newPatch.resolve(fileName) + " : " + e.getClass().getName() + ": " + e.getMessage());
-                                    }
-                                }
-                            }
-                        });
+            String recipe = recipe(entry, chain);
+            // the manifest only exists for output folders
+            Path target = manifest != null ? ((DirectoryOutput) output).resolve(entry.name()) : null;
+            if (manifest != null && manifest.isUpToDate(entry.name(), entry.source(), entry.size(), entry.lastModified(), target, recipe)) {
+                skipped.incrementAndGet();
+                metrics.add(STAGE, "upToDate", 1);
+                return;
+            }
+            long written;
+            if (minifies(entry)) {
+                byte[] minified = minifier.minify(entry.name(), Files.readAllBytes(entry.source()));
+                output.write(entry.name(), minified);
+                written = minified.length;
+            } else if (!recipe.isEmpty()) {
+                written = transform(entry, chain, recipe);
+            } else {
+                if (!copyRaw(entry)) {
+                    output.copy(entry.source(), entry.name());
+                }
+                written = entry.size();
+            }
+            copied.incrementAndGet();
+            metrics.add(STAGE, folder, BuildMetrics.FILES, 1);
+            metrics.add(STAGE, folder, BuildMetrics.BYTES_READ, entry.size());
+            metrics.add(STAGE, folder, BuildMetrics.BYTES_WRITTEN, written);
+            if (manifest != null && Files.isRegularFile(target)) {
+                manifest.record(entry.name(), entry.source(), entry.size(), entry.lastModified(), target, recipe);
             }
         } catch (IOException e) {
-            System.out.println("Error while listing files in patch " + newPatch + ": " + e.getClass().getName() + ": " + e.getMessage());
+            log.println("Error while copying " + entry.name() + ": " + e.getClass().getName() + ": " + e.getMessage());
+            metrics.add(STAGE, folder, BuildMetrics.ERRORS, 1);
+            // so the scheduler counts it
+            throw new UncheckedIOException(e);
+        } finally {
+            metrics.add(STAGE, folder, BuildMetrics.BUSY_NANOS, System.nanoTime() - start);
         }
     }
 
-    private void copyFitting(String name, Path original, Path patch, Path output, float brightenFactor) {
-        Path file = patch.resolve(name);
-        if (!Files.isRegularFile(file)) {
-            file = original.resolve(name);
-        } else {
-            try {
-                // 0 file in patch? -> skip
-                if (Files.size(file) == 0) {
-                    return;
-                }
-            } catch (IOException e) {
-                System.err.println("Can't read file " + name + " in patch to figure out its size!");
-                return;
+    // what ended up in output, in bytes
+    private long transform(OverlayIndex.Entry entry, TransformChain chain, String recipe) throws IOException {
+        byte[] source = Files.readAllBytes(entry.source());
+        String key = imageCache != null ? imageCache.key(source, recipe) : null;
+        long cached = key != null ? imageCache.copyTo(key, output, entry.name()) : -1;
+        if (cached >= 0) {
+            metrics.add(STAGE, "imagesFromCache", 1);
+            if (optimizes(entry) && chain.isEmpty()) {
+                optimizer.record(entry.name(), source.length, cached);
             }
+            return cached;
         }
-        if (!Files.isRegularFile(file)) {
-            System.err.println("Couldn't copy file " + name + " since it neither exist in patch nor in original");
-            return;
+        metrics.add(STAGE, "imagesDecoded", 1);
+        if (!chain.isEmpty()) {
+            metrics.add(STAGE, "imagesTransformed", 1);
         }
-
-        try {
-            Util.copyAndBrighten(file, output.resolve(name), brightenFactor);
-        } catch (IOException e) {
-            System.err.println("Error while copying " + name + ": " + e.getClass().getName() + ": " + e.getMessage());
+        byte[] transformed = Util.transform(source, chain, optimizes(entry) ? optimizer : null);
+        if (transformed == null) {
+            if (!chain.isEmpty()) {
+                log.println("Couldnt transform " + entry.name() + ", just copy OG");
+            }
+            output.write(entry.name(), source);
+            return source.length;
         }
+        if (chain.isEmpty() && transformed.length >= source.length) {
+            // already as small as we can make it
+            transformed = source;
+        }
+        output.write(entry.name(), transformed);
+        // transformed images have nothing sensible to compare to, only count the ones we would have shipped as is
+        if (optimizes(entry) && chain.isEmpty()) {
+            optimizer.record(entry.name(), source.length, transformed.length);
+        }
+        if (key != null) {
+            imageCache.store(key, transformed);
+        }
+        return transformed.length;
     }
 
+    private boolean copyRaw(OverlayIndex.Entry entry) throws IOException {
+        if (!(output instanceof ZipOutput zip)) {
+            return false;
+        }
+        for (PackArchive archive : archives) {
+            if (archive.contains(entry.source())) {
+                ZipOutput.Entry raw = archive.raw(entry.source());
+                if (raw != null) {
+                    zip.put(entry.name(), raw);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
 }
@@ -0,0 +1,282 @@
+package me.minidigger.minitexturepacker;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+// Parses every model of original and patch (patch wins, empty files remove) and checks that parents, textures and
+// override models exist, that no parent chain loops and which textures of the custom namespaces nothing uses.
+// What a model references is cached by the hash of the file, so unchanged models aren't parsed again next time.
+public class ModelValidator {
+
+    private static final String CACHE_HEADER = "#1";
+    // how many problems of each kind get printed, all of them end up in the report
+    private static final int PRINTED = 20;
+
+    record References(String hash, String parent, List<String> textures, List<String> models, String error) {
+    }
+
+    private final Path original;
+    private final Path patch;
+    private final Path cacheFile;
+    private final Path reportFile;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private PrintStream log = System.out;
+    private int errors;
+
+    public ModelValidator(Path original, Path patch, Path cacheFile, Path reportFile) {
+        this.original = original;
+        this.patch = patch;
+        this.cacheFile = cacheFile;
+        this.reportFile = reportFile;
+    }
+
+    public void setLog(PrintStream log) {
+        this.log = log;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public void process() {
+        errors = 0;
+        log.print("Checking models... ");
+        Map<String, Path> models;
+        Set<String> textures;
+        try {
+            models = find("models", ".json");
+            textures = find("textures", ".png").keySet();
+        } catch (IOException e) {
+            log.println("Error while scanning for models: " + e.getClass().getName() + ": " + e.getMessage());
+            throw new UncheckedIOException(e);
+        }
+
+        Map<String, References> cache = loadCache();
+        Map<String, References> parsed = new ConcurrentHashMap<>();
+        try (CopyScheduler scheduler = new CopyScheduler(threads, log)) {
+            models.forEach((model, file) -> scheduler.submitCpu(() -> {
+                try {
+                    parsed.put(model, parse(file, cache.get(model)));
+                } catch (IOException e) {
+                    parsed.put(model, new References("", null, List.of(), List.of(), e.getClass().getName() + ": " + e.getMessage()));
+                }
+            }));
+            scheduler.await();
+        }
+
+        Map<String, List<String>> problems = new TreeMap<>();
+        Set<String> usedTextures = new HashSet<>();
+        for (Map.Entry<String, References> entry : new TreeMap<>(parsed).entrySet()) {
+            String model = entry.getKey();
+            References references = entry.getValue();
+            if (references.error() != null) {
+                problem(problems, "invalid models", model + ": " + references.error());
+                continue;
+            }
+            // builtin/generated and friends are part of the game, not files
+            if (references.parent() != null && !references.parent().startsWith("minecraft:builtin/") && !models.containsKey(references.parent())) {
+                problem(problems, "missing parents", model + " -> " + references.parent());
+            }
+            for (String texture : references.textures()) {
+                usedTextures.add(texture);
+                if (!textures.contains(texture)) {
+                    problem(problems, "missing textures", model + " -> " + texture);
+                }
+            }
+            for (String override : references.models()) {
+                if (!models.containsKey(override)) {
+                    problem(problems, "missing override models", model + " -> " + override);
+                }
+            }
+        }
+        for (String cycle : findCycles(parsed)) {
+            problem(problems, "parent cycles", cycle);
+        }
+        textures.stream()
+                .filter(texture -> !texture.startsWith("minecraft:"))
+                .filter(texture -> !usedTextures.contains(texture))
+                .sorted()
+                .forEach(texture -> problem(problems, "unused textures", texture));
+
+        // unused textures might still be used by fonts or particles, everything else is broken
+        errors = problems.entrySet().stream().filter(e -> !e.getKey().equals("unused textures")).mapToInt(e -> e.getValue().size()).sum();
+        int reparsed = (int) parsed.entrySet().stream().filter(e -> cache.get(e.getKey()) != e.getValue()).count();
+        log.println("Checked " + models.size() + " models (" + reparsed + " parsed, the rest cached), found "
+                + problems.values().stream().mapToInt(List::size).sum() + " problems!");
+        problems.forEach((kind, list) -> {
+            log.println("  " + list.size() + " " + kind + ":");
+            list.stream().limit(PRINTED).forEach(problem -> log.println("    " + problem));
+            if (list.size() > PRINTED) {
+                log.println("    ... see " + reportFile.getFileName());
+            }
+        });
+        saveCache(parsed);
+        writeReport(problems);
+    }
+
+    // broken references the last check found
+    public int errors() {
+        return errors;
+    }
+
+    private static void problem(Map<String, List<String>> problems, String kind, String problem) {
+        problems.computeIfAbsent(kind, k -> new ArrayList<>()).add(problem);
+    }
+
+    // resource location -> file, patch over original
+    private Map<String, Path> find(String folder, String extension) throws IOException {
+        Map<String, Path> files = new HashMap<>();
+        for (Path root : List.of(original, patch)) {
+            Path assets = root.resolve("assets");
+            if (!Files.isDirectory(assets)) {
+                continue;
+            }
+            try (Stream<Path> walk = Files.walk(assets)) {
+                for (Path file : (Iterable<Path>) walk::iterator) {
+                    String[] parts = OverlayIndex.name(assets, file).split("/", 3);
+                    if (parts.length < 3 || !parts[1].equals(folder) || !parts[2].endsWith(extension) || !Files.isRegularFile(file)) {
+                        continue;
+                    }
+                    String location = parts[0] + ":" + parts[2].substring(0, parts[2].length() - extension.length());
+                    if (root == patch && Files.size(file) == 0) {
+                        // tombstone
+                        files.remove(location);
+                    } else {
+                        files.put(location, file);
+                    }
+                }
+            }
+        }
+        return files;
+    }
+
+    private References parse(Path file, References cached) throws IOException {
+        byte[] data = Files.readAllBytes(file);
+        String hash = HexFormat.of().formatHex(Util.sha1().digest(data));
+        if (cached != null && cached.hash().equals(hash)) {
+            return cached;
+        }
+        try {
+            JSONObject json = new JSONObject(new String(data, StandardCharsets.UTF_8));
+            String parent = json.has("parent") ? location(json.getString("parent")) : null;
+            List<String> textures = new ArrayList<>();
+            JSONObject textureMap = json.optJSONObject("textures");
+            if (textureMap != null) {
+                for (String variable : textureMap.keySet()) {
+                    String value = textureMap.getString(variable);
+                    if (!value.startsWith("#")) {
+                        textures.add(location(value));
+                    }
+                }
+            }
+            List<String> models = new ArrayList<>();
+            JSONArray overrides = json.optJSONArray("overrides");
+            if (overrides != null) {
+                for (int i = 0; i < overrides.length(); i++) {
+                    // templates still have their marker in there
+                    JSONObject override = overrides.optJSONObject(i);
+                    if (override != null && override.has("model")) {
+                        models.add(location(override.getString("model")));
+                    }
+                }
+            }
+            return new References(hash, parent, textures, models, null);
+        } catch (JSONException e) {
+            return new References(hash, null, List.of(), List.of(), e.getMessage());
+        }
+    }
+
+    private static String location(String value) {
+        return value.contains(":") ? value : "minecraft:" + value;
+    }
+
+    // every parent chain is followed once, models already known to be fine or in a cycle are skipped
+    private static List<String> findCycles(Map<String, References> models) {
+        List<String> cycles = new ArrayList<>();
+        Set<String> done = new HashSet<>();
+        for (String start : new TreeMap<>(models).keySet()) {
+            List<String> chain = new ArrayList<>();
+            Set<String> onChain = new HashSet<>();
+            String model = start;
+            while (model != null && !done.contains(model)) {
+                if (!onChain.add(model)) {
+                    List<String> cycle = new ArrayList<>(chain.subList(chain.indexOf(model), chain.size()));
+                    cycle.add(model);
+                    cycles.add(String.join(" -> ", cycle));
+                    break;
+                }
+                chain.add(model);
+                References references = models.get(model);
+                model = references != null ? references.parent() : null;
+            }
+            done.addAll(chain);
+        }
+        return cycles;
+    }
+
+    private Map<String, References> loadCache() {
+        Map<String, References> cache = new HashMap<>();
+        if (!Files.isRegularFile(cacheFile)) {
+            return cache;
+        }
+        try {
+            List<String> lines = Files.readAllLines(cacheFile);
+            if (lines.isEmpty() || !lines.get(0).equals(CACHE_HEADER)) {
+                return cache;
+            }
+            for (String line : lines.subList(1, lines.size())) {
+                // model, hash, parent, textures, override models, error
+                String[] s = line.split("\t", -1);
+                cache.put(s[0], new References(s[1], s[2].isEmpty() ? null : s[2], split(s[3]), split(s[4]), s[5].isEmpty() ? null : s[5]));
+            }
+        } catch (IOException | RuntimeException e) {
+            log.print("Error while loading model cache, parsing everything: " + e.getClass().getName() + ": " + e.getMessage() + "... ");
+            cache.clear();
+        }
+        return cache;
+    }
+
+    private static List<String> split(String list) {
+        return list.isEmpty() ? List.of() : List.of(list.split(","));
+    }
+
+    private void saveCache(Map<String, References> parsed) {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(cacheFile))) {
+            writer.println(CACHE_HEADER);
+            new TreeMap<>(parsed).forEach((model, r) -> writer.println(String.join("\t", model, r.hash(),
+                    r.parent() == null ? "" : r.parent(), String.join(",", r.textures()), String.join(",", r.models()),
+                    r.error() == null ? "" : r.error().replace('\t', ' ').replace('\n', ' '))));
+        } catch (IOException e) {
+            log.println("Error while writing model cache: " + e.getClass().getName() + ": " + e.getMessage());
+        }
+    }
+
+    private void writeReport(Map<String, List<String>> problems) {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(reportFile))) {
+            problems.forEach((kind, list) -> {
+                writer.println(list.size() + " " + kind + ":");
+                list.forEach(problem -> writer.println("  " + problem));
+            });
+        } catch (IOException e) {
+            log.println("Error while writing model report: " + e.getClass().getName() + ": " + e.getMessage());
+        }
+    }
+}
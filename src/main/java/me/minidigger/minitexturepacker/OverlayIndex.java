@@ -0,0 +1,104 @@
+package me.minidigger.minitexturepacker;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+class OverlayIndex {
+
+    record Entry(String name, Path source, long size, long lastModified, boolean fromPatch) {
+        // an empty file in patch means "don't ship this file at all"
+        boolean tombstone() {
+            return fromPatch() && size() == 0;
+        }
+    }
+
+    private final Map<String, Entry> entries;
+    // original files that patch replaced
+    private final Map<String, Entry> shadowed;
+
+    OverlayIndex(Map<String, Entry> entries, Map<String, Entry> shadowed) {
+        this.entries = entries;
+        this.shadowed = shadowed;
+    }
+
+    static OverlayIndex build(Path original, Path patch, Predicate<String> includeDir, Predicate<String> includeOriginal, Predicate<String> includePatch) throws IOException {
+        return merge(scan(original, false, includeDir, includeOriginal), scan(patch, true, includeDir, includePatch));
+    }
+
+    // patch always wins over original, tombstones stay in the index so they can be told apart from files that just don't exist
+    static OverlayIndex merge(Map<String, Entry> original, Map<String, Entry> patch) {
+        Map<String, Entry> merged = new TreeMap<>(original);
+        Map<String, Entry> shadowed = new TreeMap<>();
+        for (Entry entry : patch.values()) {
+            Entry replaced = merged.put(entry.name(), entry);
+            if (replaced != null) {
+                shadowed.put(entry.name(), replaced);
+            }
+        }
+        return new OverlayIndex(merged, shadowed);
+    }
+
+    // walks root once, using the attributes the walk already has instead of stat-ing every file again
+    static Map<String, Entry> scan(Path root, boolean fromPatch, Predicate<String> includeDir, Predicate<String> includeFile) throws IOException {
+        Map<String, Entry> entries = new TreeMap<>();
+        if (!Files.isDirectory(root)) {
+            return entries;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                return includeDir.test(name(root, dir)) ? FileVisitResult.CONTINUE : FileVisitResult.SKIP_SUBTREE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    String name = name(root, file);
+                    if (includeFile.test(name)) {
+                        entries.put(name, new Entry(name, file, attrs.size(), attrs.lastModifiedTime().toMillis(), fromPatch));
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return entries;
+    }
+
+    static String name(Path root, Path file) {
+        return root.relativize(file).toString().replace(root.getFileSystem().getSeparator(), "/");
+    }
+
+    Entry get(String name) {
+        return entries.get(name);
+    }
+
+    // the original file a patch file replaces, if any
+    Entry shadowed(String name) {
+        return shadowed.get(name);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    // everything that should end up in the output, sorted by name
+    List<Entry> winners() {
+        return entries.values().stream()
+                .filter(e -> !e.tombstone())
+                .collect(Collectors.toList());
+    }
+
+    Collection<Entry> all() {
+        return entries.values();
+    }
+}
@@ -0,0 +1,126 @@
+package me.minidigger.minitexturepacker;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+// A pack (or the client jar) that stays zipped. Everything reads it through a zip FileSystem, but we also map the
+// central directory ourselves so unchanged entries can go into a zip output without being inflated and deflated again.
+public class PackArchive implements Closeable {
+
+    private record Location(int method, long crc, long compressedSize, long size, long localHeader) {
+    }
+
+    private final Path file;
+    private final FileSystem fileSystem;
+    private final MappedByteBuffer buffer;
+    private final Map<String, Location> locations;
+
+    private PackArchive(Path file, FileSystem fileSystem, MappedByteBuffer buffer, Map<String, Location> locations) {
+        this.file = file;
+        this.fileSystem = fileSystem;
+        this.buffer = buffer;
+        this.locations = locations;
+    }
+
+    public static boolean isArchive(Path path) {
+        String name = path.getFileName().toString();
+        return name.endsWith(".jar") || name.endsWith(".zip");
+    }
+
+    public static PackArchive open(Path file) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        Map<String, Location> locations = readCentralDirectory(buffer);
+        FileSystem fileSystem = FileSystems.newFileSystem(file, Map.of());
+        return new PackArchive(file, fileSystem, buffer, locations);
+    }
+
+    public Path root() {
+        return fileSystem.getPath("/");
+    }
+
+    boolean contains(Path path) {
+        return path.getFileSystem() == fileSystem;
+    }
+
+    // the still compressed bytes of an entry, or null if we can't hand them out as is
+    ZipOutput.Entry raw(Path path) {
+        Location location = locations.get(OverlayIndex.name(root(), path));
+        if (location == null || (location.method() != ZipOutput.STORED && location.method() != ZipOutput.DEFLATED)) {
+            return null;
+        }
+        int header = Math.toIntExact(location.localHeader());
+        if (buffer.getInt(header) != 0x04034b50) {
+            return null;
+        }
+        int start = header + 30 + Short.toUnsignedInt(buffer.getShort(header + 26)) + Short.toUnsignedInt(buffer.getShort(header + 28));
+        byte[] data = new byte[Math.toIntExact(location.compressedSize())];
+        buffer.get(start, data);
+        return new ZipOutput.Entry(location.method(), location.crc(), location.size(), data);
+    }
+
+    @Override
+    public void close() throws IOException {
+        fileSystem.close();
+    }
+
+    @Override
+    public String toString() {
+        return file.toString();
+    }
+
+    private static Map<String, Location> readCentralDirectory(MappedByteBuffer buffer) throws IOException {
+        // the end record sits at the very end, unless there is a comment behind it
+        int end = -1;
+        for (int i = buffer.limit() - 22; i >= Math.max(0, buffer.limit() - 22 - 0xFFFF); i--) {
+            if (buffer.getInt(i) == 0x06054b50) {
+                end = i;
+                break;
+            }
+        }
+        if (end == -1) {
+            throw new IOException("Not a zip file, no end of central directory found");
+        }
+        int count = Short.toUnsignedInt(buffer.getShort(end + 10));
+        long offset = Integer.toUnsignedLong(buffer.getInt(end + 16));
+        Map<String, Location> locations = new HashMap<>(count * 2);
+        if (offset == 0xFFFFFFFFL) {
+            // zip64, leave everything to the zip FileSystem
+            return locations;
+        }
+        int pos = Math.toIntExact(offset);
+        for (int i = 0; i < count; i++) {
+            if (buffer.getInt(pos) != 0x02014b50) {
+                throw new IOException("Broken central directory at " + pos);
+            }
+            int method = Short.toUnsignedInt(buffer.getShort(pos + 10));
+            long crc = Integer.toUnsignedLong(buffer.getInt(pos + 16));
+            long compressedSize = Integer.toUnsignedLong(buffer.getInt(pos + 20));
+            long size = Integer.toUnsignedLong(buffer.getInt(pos + 24));
+            int nameLength = Short.toUnsignedInt(buffer.getShort(pos + 28));
+            int extraLength = Short.toUnsignedInt(buffer.getShort(pos + 30));
+            int commentLength = Short.toUnsignedInt(buffer.getShort(pos + 32));
+            long localHeader = Integer.toUnsignedLong(buffer.getInt(pos + 42));
+            byte[] name = new byte[nameLength];
+            buffer.get(pos + 46, name);
+            if (compressedSize != 0xFFFFFFFFL && size != 0xFFFFFFFFL && localHeader != 0xFFFFFFFFL) {
+                locations.put(new String(name, StandardCharsets.UTF_8), new Location(method, crc, compressedSize, size, localHeader));
+            }
+            pos += 46 + nameLength + extraLength + commentLength;
+        }
+        return locations;
+    }
+}
@@ -0,0 +1,24 @@
+package me.minidigger.minitexturepacker;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+// where the finished pack ends up, names are always relative and use / as separator
+public interface PackOutput extends Closeable {
+
+    void copy(Path source, String name) throws IOException;
+
+    void write(String name, byte[] data) throws IOException;
+
+    default void write(String name, String data) throws IOException {
+        write(name, data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    boolean exists(String name);
+
+    byte[] read(String name) throws IOException;
+
+    void delete(String name) throws IOException;
+}
@@ -0,0 +1,94 @@
+package me.minidigger.minitexturepacker;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+// Watches the patch folder and everything below it. Events are collected until nothing happened for a moment, so
+// an editor saving a file (often delete + create + modify) or a whole folder being copied in is a single batch.
+class PatchWatcher implements Closeable {
+
+    // how long it has to be quiet before we hand out a batch
+    private static final long DEBOUNCE_MILLIS = 100;
+
+    private final Path root;
+    private final WatchService service;
+    private final Map<WatchKey, Path> dirs = new HashMap<>();
+
+    PatchWatcher(Path root) throws IOException {
+        this.root = root;
+        this.service = root.getFileSystem().newWatchService();
+        register(root, null);
+    }
+
+    // blocks until something changed, the names are relative to patch, null means events were lost and everything
+    // has to be rebuilt
+    Set<String> next() throws InterruptedException, IOException {
+        Set<String> changed = new TreeSet<>();
+        boolean overflow = false;
+        WatchKey key = service.take();
+        while (key != null) {
+            Path dir = dirs.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                    overflow = true;
+                    continue;
+                }
+                Path file = dir.resolve((Path) event.context());
+                if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE && dirs.containsValue(file)) {
+                    // we don't know what was in there anymore
+                    overflow = true;
+                } else if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(file)) {
+                    // a new folder, watch it and take everything that is already in there
+                    register(file, changed);
+                } else {
+                    changed.add(OverlayIndex.name(root, file));
+                }
+            }
+            if (!key.reset()) {
+                // a watched folder is gone
+                dirs.remove(key);
+                overflow = true;
+            }
+            key = service.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return overflow ? null : changed;
+    }
+
+    private void register(Path start, Set<String> found) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                dirs.put(dir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY), dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (found != null) {
+                    found.add(OverlayIndex.name(root, file));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        service.close();
+    }
+}
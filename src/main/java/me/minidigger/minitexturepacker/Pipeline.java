@@ -0,0 +1,147 @@
+package me.minidigger.minitexturepacker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// The stages of a build with what they read and write, like "output/assets/minecraft/lang/". A name ending with a
+// slash is a whole folder and * stands for any one folder. A stage waits for the stages added before it that write
+// something it reads or writes, or read something it writes, everything else runs at the same time. So stages are
+// added in the order they would run one after another, and a build takes about as long as its longest chain of
+// stages instead of all of them added up. Stages that run at the same time print whole lines in between each other.
+// A stage that throws stops everything that waits for it, there is no point in writing models into a half built output.
+class Pipeline {
+
+    private record Stage(String name, List<String> reads, List<String> writes, Runnable task) {
+    }
+
+    private final BuildMetrics metrics;
+    private final List<Stage> stages = new ArrayList<>();
+    private final Set<Stage> failed = ConcurrentHashMap.newKeySet();
+
+    Pipeline(BuildMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    Pipeline add(String name, List<String> reads, List<String> writes, Runnable task) {
+        stages.add(new Stage(name, reads, writes, task));
+        return this;
+    }
+
+    // false if a stage failed, the stages that wait for it are skipped then
+    boolean run() {
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newCachedThreadPool();
+        List<CompletableFuture<Void>> done = new ArrayList<>();
+        try {
+            for (int i = 0; i < stages.size(); i++) {
+                Stage stage = stages.get(i);
+                List<CompletableFuture<Void>> after = new ArrayList<>();
+                for (int j = 0; j < i; j++) {
+                    if (conflicts(stages.get(j), stage)) {
+                        after.add(done.get(j));
+                    }
+                }
+                // a failed stage fails allOf as well, so everything after it doesn't run at all
+                done.add(CompletableFuture.allOf(after.toArray(CompletableFuture<?>[]::new))
+                        .thenRunAsync(() -> run(stage), executor));
+            }
+            CompletableFuture.allOf(done.toArray(CompletableFuture<?>[]::new)).handle((result, e) -> null).join();
+        } finally {
+            executor.shutdown();
+        }
+        metrics.setWallMillis((System.nanoTime() - start) / 1_000_000);
+        List<String> skipped = new ArrayList<>();
+        boolean ok = true;
+        for (int i = 0; i < stages.size(); i++) {
+            if (done.get(i).isCompletedExceptionally()) {
+                ok = false;
+                if (!failed.contains(stages.get(i))) {
+                    skipped.add(stages.get(i).name());
+                }
+            }
+        }
+        if (!skipped.isEmpty()) {
+            System.out.println("Skipped " + String.join(", ", skipped) + ", a stage they wait for failed");
+        }
+        return ok;
+    }
+
+    private void run(Stage stage) {
+        try {
+            metrics.time(stage.name(), stage.task());
+        } catch (RuntimeException e) {
+            System.out.println("Error while running " + stage.name() + ": " + e.getClass().getName() + ": " + e.getMessage());
+            failed.add(stage);
+            throw e;
+        }
+    }
+
+    // what a stage prints to, every stage needs its own. Lines go to the console as soon as they are complete, so a
+    // "Copying... " of one stage and its "Done!" stay on one line even if other stages print in between
+    static PrintStream lines() {
+        return new PrintStream(new OutputStream() {
+            private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+            @Override
+            public void write(int b) {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                int end = off + len;
+                for (int i = off; i < end; i++) {
+                    if (b[i] == '\n') {
+                        line.write(b, off, i + 1 - off);
+                        off = i + 1;
+                        PrintStream console = System.out;
+                        synchronized (console) {
+                            console.write(line.toByteArray(), 0, line.size());
+                            console.flush();
+                        }
+                        line.reset();
+                    }
+                }
+                line.write(b, off, end - off);
+            }
+        }, true);
+    }
+
+    private static boolean conflicts(Stage before, Stage stage) {
+        return overlaps(before.writes(), stage.reads()) || overlaps(before.writes(), stage.writes()) || overlaps(before.reads(), stage.writes());
+    }
+
+    private static boolean overlaps(List<String> left, List<String> right) {
+        for (String a : left) {
+            for (String b : right) {
+                if (overlaps(a, b)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // whether two names can mean the same file, a folder overlaps everything in it
+    private static boolean overlaps(String a, String b) {
+        String[] left = a.split("/", -1);
+        String[] right = b.split("/", -1);
+        for (int i = 0; i < Math.min(left.length, right.length); i++) {
+            if (left[i].isEmpty() || right[i].isEmpty()) {
+                return true;
+            }
+            if (!left[i].equals(right[i]) && !left[i].equals("*") && !right[i].equals("*")) {
+                return false;
+            }
+        }
+        return left.length == right.length;
+    }
+}
@@ -0,0 +1,291 @@
+package me.minidigger.minitexturepacker;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import javax.imageio.ImageIO;
+
+// Lossless png encoder that writes the smallest png it easily can: a palette when there are at most 256 colors,
+// no alpha channel when everything is opaque, a filter per row and no metadata chunks at all. We only work with 8 bit
+// ARGB, 16 bit pngs and anything else that can't be turned into that exactly are left alone. Every png we write is
+// decoded again and compared to the image, if anything doesn't match it is left alone too.
+public class PngOptimizer {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    private static final int COLOR_RGB = 2;
+    private static final int COLOR_PALETTE = 3;
+    private static final int COLOR_RGBA = 6;
+
+    record Saving(String name, long before, long after) {
+        long saved() {
+            return before - after;
+        }
+    }
+
+    private final int level;
+    private final Queue<Saving> savings = new ConcurrentLinkedQueue<>();
+
+    public PngOptimizer(int level) {
+        this.level = Math.max(Deflater.BEST_SPEED, Math.min(Deflater.BEST_COMPRESSION, level));
+    }
+
+    String describe() {
+        return "optimize(" + level + ")";
+    }
+
+    // the optimized png, or null if the image can't be written losslessly by us
+    byte[] encode(BufferedImage image) throws IOException {
+        int[] argb = Util.argb(image);
+        if (argb == null) {
+            return null;
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        boolean opaque = true;
+        for (int pixel : argb) {
+            if (pixel >>> 24 != 0xFF) {
+                opaque = false;
+                break;
+            }
+        }
+        int[] palette = palette(argb);
+
+        int colorType;
+        int bitDepth = 8;
+        int bytesPerPixel;
+        byte[] raw;
+        if (palette != null) {
+            colorType = COLOR_PALETTE;
+            bitDepth = palette.length <= 2 ? 1 : palette.length <= 4 ? 2 : palette.length <= 16 ? 4 : 8;
+            bytesPerPixel = 1;
+            raw = indexed(argb, width, height, palette, bitDepth);
+        } else {
+            colorType = opaque ? COLOR_RGB : COLOR_RGBA;
+            bytesPerPixel = opaque ? 3 : 4;
+            raw = truecolor(argb, opaque);
+        }
+        int rowLength = (width * bitDepth * bytesPerPixel + 7) / 8;
+        // packed palette rows rarely get smaller with filters, the usual advice is to leave them alone
+        byte[] filtered = filter(raw, rowLength, height, bytesPerPixel, colorType != COLOR_PALETTE || bitDepth == 8);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(raw.length / 2 + 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(SIGNATURE);
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        DataOutputStream headerOut = new DataOutputStream(header);
+        headerOut.writeInt(width);
+        headerOut.writeInt(height);
+        headerOut.writeByte(bitDepth);
+        headerOut.writeByte(colorType);
+        headerOut.writeByte(0); // deflate
+        headerOut.writeByte(0); // adaptive filtering
+        headerOut.writeByte(0); // no interlace
+        chunk(out, "IHDR", header.toByteArray());
+        if (palette != null) {
+            byte[] plte = new byte[palette.length * 3];
+            int alphas = 0;
+            for (int i = 0; i < palette.length; i++) {
+                plte[i * 3] = (byte) (palette[i] >> 16);
+                plte[i * 3 + 1] = (byte) (palette[i] >> 8);
+                plte[i * 3 + 2] = (byte) palette[i];
+                if (palette[i] >>> 24 != 0xFF) {
+                    alphas = i + 1;
+                }
+            }
+            chunk(out, "PLTE", plte);
+            if (alphas > 0) {
+                // translucent colors are sorted to the front, so everything after them can be left out
+                byte[] trns = new byte[alphas];
+                for (int i = 0; i < alphas; i++) {
+                    trns[i] = (byte) (palette[i] >>> 24);
+                }
+                chunk(out, "tRNS", trns);
+            }
+        }
+        chunk(out, "IDAT", deflate(filtered));
+        chunk(out, "IEND", new byte[0]);
+        byte[] png = bytes.toByteArray();
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(png));
+        int[] check = decoded != null ? Util.argb(decoded) : null;
+        return check != null && Arrays.equals(check, argb) ? png : null;
+    }
+
+    // the distinct colors, translucent ones first, or null if there are more than 256
+    private static int[] palette(int[] argb) {
+        Map<Integer, Boolean> colors = new HashMap<>();
+        for (int pixel : argb) {
+            if (colors.putIfAbsent(pixel, Boolean.TRUE) == null && colors.size() > 256) {
+                return null;
+            }
+        }
+        return colors.keySet().stream()
+                .sorted(Comparator.<Integer>comparingInt(c -> c >>> 24 == 0xFF ? 1 : 0).thenComparingInt(c -> c))
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    private static byte[] indexed(int[] argb, int width, int height, int[] palette, int bitDepth) {
+        Map<Integer, Integer> indices = new HashMap<>();
+        for (int i = 0; i < palette.length; i++) {
+            indices.put(palette[i], i);
+        }
+        int rowLength = (width * bitDepth + 7) / 8;
+        int perByte = 8 / bitDepth;
+        byte[] raw = new byte[rowLength * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int index = indices.get(argb[y * width + x]);
+                int shift = (perByte - 1 - x % perByte) * bitDepth;
+                raw[y * rowLength + x / perByte] |= (byte) (index << shift);
+            }
+        }
+        return raw;
+    }
+
+    private static byte[] truecolor(int[] argb, boolean opaque) {
+        int bytesPerPixel = opaque ? 3 : 4;
+        byte[] raw = new byte[argb.length * bytesPerPixel];
+        for (int i = 0; i < argb.length; i++) {
+            int pixel = argb[i];
+            int offset = i * bytesPerPixel;
+            raw[offset] = (byte) (pixel >> 16);
+            raw[offset + 1] = (byte) (pixel >> 8);
+            raw[offset + 2] = (byte) pixel;
+            if (!opaque) {
+                raw[offset + 3] = (byte) (pixel >>> 24);
+            }
+        }
+        return raw;
+    }
+
+    // prefixes every row with its filter type, picking the filter with the smallest sum of absolute differences
+    private static byte[] filter(byte[] raw, int rowLength, int height, int bpp, boolean adaptive) {
+        byte[] out = new byte[(rowLength + 1) * height];
+        byte[] candidate = new byte[rowLength];
+        byte[] best = new byte[rowLength];
+        for (int y = 0; y < height; y++) {
+            int row = y * rowLength;
+            int previous = y == 0 ? -1 : row - rowLength;
+            int bestType = 0;
+            if (adaptive) {
+                long bestSum = Long.MAX_VALUE;
+                for (int type = 0; type < 5; type++) {
+                    long sum = 0;
+                    for (int i = 0; i < rowLength; i++) {
+                        int a = i >= bpp ? raw[row + i - bpp] & 0xFF : 0;
+                        int b = previous >= 0 ? raw[previous + i] & 0xFF : 0;
+                        int c = i >= bpp && previous >= 0 ? raw[previous + i - bpp] & 0xFF : 0;
+                        int x = raw[row + i] & 0xFF;
+                        int value = switch (type) {
+                            case 1 -> x - a;
+                            case 2 -> x - b;
+                            case 3 -> x - (a + b) / 2;
+                            case 4 -> x - paeth(a, b, c);
+                            default -> x;
+                        };
+                        candidate[i] = (byte) value;
+                        sum += Math.abs((byte) value);
+                    }
+                    if (sum < bestSum) {
+                        bestSum = sum;
+                        bestType = type;
+                        byte[] swap = best;
+                        best = candidate;
+                        candidate = swap;
+                    }
+                }
+            } else {
+                System.arraycopy(raw, row, best, 0, rowLength);
+            }
+            out[y * (rowLength + 1)] = (byte) bestType;
+            System.arraycopy(best, 0, out, y * (rowLength + 1) + 1, rowLength);
+        }
+        return out;
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    private byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void chunk(DataOutputStream out, String type, byte[] data) throws IOException {
+        byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(name);
+        crc.update(data);
+        out.writeInt(data.length);
+        out.write(name);
+        out.write(data);
+        out.writeInt((int) crc.getValue());
+    }
+
+    void record(String name, long before, long after) {
+        savings.add(new Saving(name, before, after));
+    }
+
+    // prints the totals and the biggest wins, every file goes into the csv
+    void report(Path csv, PrintStream log) {
+        List<Saving> all = new ArrayList<>(savings);
+        long before = all.stream().mapToLong(Saving::before).sum();
+        long after = all.stream().mapToLong(Saving::after).sum();
+        log.println("Optimized " + all.size() + " pngs from " + before / 1024 + " KiB to " + after / 1024 + " KiB, saved "
+                + (before == 0 ? 0 : (before - after) * 100 / before) + "%");
+        all.sort(Comparator.comparingLong(Saving::saved).reversed().thenComparing(Saving::name));
+        for (Saving saving : all.subList(0, Math.min(10, all.size()))) {
+            if (saving.saved() > 0) {
+                log.println("  " + saving.name() + ": " + saving.before() + " -> " + saving.after() + " bytes");
+            }
+        }
+        log.print("Writing png savings... ");
+        StringBuilder sb = new StringBuilder("file,before,after\n");
+        for (Saving saving : all) {
+            sb.append(saving.name()).append(',').append(saving.before()).append(',').append(saving.after()).append('\n');
+        }
+        try {
+            Files.writeString(csv, sb.toString());
+            log.println("Done!");
+        } catch (IOException e) {
+            log.println("Error while writing png savings: " + e.getClass().getName() + ": " + e.getMessage());
+        }
+    }
+}
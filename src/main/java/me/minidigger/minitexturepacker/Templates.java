@@ -2,14 +2,6 @@ package me.minidigger.minitexturepacker;
 
 public class Templates {
 
-    public static final String PREDICATE = """
-                { "predicate": {"custom_model_data":  %s}, "model": "%s"},
-            """;
-
-    public static final String BOW_PREDICATE = """
-                { "predicate": { "custom_model_data": %s, "pulling": %s, "pull": %s}, "model": "%s"},
-            """;
-
     //language=JSON
     public static final String BOW = """
             {
@@ -60,7 +52,7 @@ public class Templates {
                   },
                   "model": "item/bow_pulling_2"
                 },
-                %mini_model_creator_marker%
+                "%mini_model_creator_marker%"
               ]
             }
             """;
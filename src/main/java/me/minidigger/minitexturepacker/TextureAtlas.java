@@ -0,0 +1,477 @@
+package me.minidigger.minitexturepacker;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.imageio.ImageIO;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+// Stitches the textures of the namespace models into a few power of two sheets and points the model faces at the
+// right part of the sheet, so the client loads a handful of images instead of thousands.
+// Only textures that are used by nothing but the faces of element models can be stitched, item/generated builds its
+// geometry from the whole texture and particles always show the whole texture, those stay separate files.
+// The stitched textures stay in the pack too, fonts, particles, other packs or models we didn't touch can still use them.
+public class TextureAtlas {
+
+    record Sprite(String texture, int width, int height, int[] argb) {
+    }
+
+    record Placement(Sprite sprite, int x, int y) {
+    }
+
+    record Sheet(int width, int height, List<Placement> placements) {
+        double fill() {
+            long used = placements.stream().mapToLong(p -> (long) p.sprite().width() * p.sprite().height()).sum();
+            return (double) used / ((long) width * height);
+        }
+    }
+
+    private record Model(String name, JSONObject json, boolean rewritable) {
+    }
+
+    private final Path patch;
+    private final PackOutput output;
+    private final String namespace;
+    private final int maxSize;
+    private PngOptimizer optimizer;
+    private PrintStream log = System.out;
+
+    public TextureAtlas(Path patch, PackOutput output, String namespace, int maxSize) {
+        this.patch = patch;
+        this.output = output;
+        this.namespace = namespace;
+        this.maxSize = maxSize;
+    }
+
+    public void setLog(PrintStream log) {
+        this.log = log;
+    }
+
+    public void setOptimizer(PngOptimizer optimizer) {
+        this.optimizer = optimizer;
+    }
+
+    public void process() {
+        log.print("Looking for sprites to stitch... ");
+        List<Model> models = loadModels();
+        if (models == null) {
+            return;
+        }
+        List<Sprite> sprites = findSprites(models);
+        log.println("Found " + sprites.size() + "!");
+        if (sprites.isEmpty()) {
+            return;
+        }
+
+        log.print("Stitching " + sprites.size() + " sprites... ");
+        List<Sheet> sheets = pack(sprites, maxSize);
+        Map<String, String> locations = new HashMap<>();
+        Map<String, Placement> placements = new HashMap<>();
+        Map<String, Sheet> sheetOf = new HashMap<>();
+        try {
+            for (int i = 0; i < sheets.size(); i++) {
+                Sheet sheet = sheets.get(i);
+                output.write(sheetFile(i), draw(sheet));
+                for (Placement placement : sheet.placements()) {
+                    locations.put(placement.sprite().texture(), namespace + ":atlas/sheet" + i);
+                    placements.put(placement.sprite().texture(), placement);
+                    sheetOf.put(placement.sprite().texture(), sheet);
+                }
+            }
+            // sheets left over from a build that needed more of them
+            for (int i = sheets.size(); output.exists(sheetFile(i)); i++) {
+                output.delete(sheetFile(i));
+            }
+            for (Model model : models) {
+                if (model.rewritable() && rewrite(model.json(), locations, placements, sheetOf)) {
+                    output.write(model.name(), model.json().toString(2));
+                }
+            }
+        } catch (IOException e) {
+            log.println("Error while writing atlas: " + e.getClass().getName() + ": " + e.getMessage());
+            return;
+        }
+        log.println("Done!");
+        for (int i = 0; i < sheets.size(); i++) {
+            Sheet sheet = sheets.get(i);
+            log.println("  sheet" + i + ": " + sheet.width() + "x" + sheet.height() + ", " + sheet.placements().size()
+                    + " sprites, " + Math.round(sheet.fill() * 100) + "% full");
+        }
+    }
+
+    private String sheetFile(int index) {
+        return "assets/" + namespace + "/textures/atlas/sheet" + index + ".png";
+    }
+
+    // null if any model couldn't be read, we can't tell what it references then
+    private List<Model> loadModels() {
+        List<String> names;
+        try (Stream<Path> files = Files.walk(patch.resolve("assets"))) {
+            names = files.filter(Files::isRegularFile)
+                    .map(file -> OverlayIndex.name(patch, file))
+                    .filter(name -> name.split("/").length > 3 && name.split("/")[2].equals("models") && name.endsWith(".json"))
+                    .filter(output::exists)
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            log.println("Error while scanning for models: " + e.getClass().getName() + ": " + e.getMessage());
+            return null;
+        }
+
+        Map<String, JSONObject> json = new LinkedHashMap<>();
+        for (String name : names) {
+            try {
+                json.put(name, new JSONObject(new String(output.read(name), StandardCharsets.UTF_8)));
+            } catch (IOException | JSONException e) {
+                log.println("Error while reading model " + name + ", not stitching anything: " + e.getClass().getName() + ": " + e.getMessage());
+                return null;
+            }
+        }
+
+        // the elements of a parent are used with the textures of its children, those can't point at our sheets
+        Set<String> parents = new HashSet<>();
+        for (JSONObject model : json.values()) {
+            if (model.has("parent")) {
+                parents.add(modelFile(model.getString("parent")));
+            }
+        }
+        List<Model> models = new ArrayList<>();
+        json.forEach((name, model) -> models.add(new Model(name, model,
+                name.startsWith("assets/" + namespace + "/") && !parents.contains(name) && hasRewritableElements(model))));
+        return models;
+    }
+
+    private static boolean hasRewritableElements(JSONObject model) {
+        JSONArray elements = model.optJSONArray("elements");
+        JSONObject textures = model.optJSONObject("textures");
+        if (elements == null || textures == null) {
+            return false;
+        }
+        for (int i = 0; i < elements.length(); i++) {
+            JSONObject element = elements.getJSONObject(i);
+            JSONObject faces = element.optJSONObject("faces");
+            if (faces == null) {
+                continue;
+            }
+            for (String direction : faces.keySet()) {
+                JSONObject face = faces.getJSONObject(direction);
+                String texture = face.optString("texture");
+                if (!texture.startsWith("#") || resolve(textures, texture.substring(1)) == null) {
+                    return false;
+                }
+                for (double value : uv(element, direction, face)) {
+                    // uvs outside of the texture would wrap around, which a sheet can't do
+                    if (value < 0 || value > 16) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private List<Sprite> findSprites(List<Model> models) {
+        Set<String> usable = new HashSet<>();
+        Set<String> blocked = new HashSet<>();
+        for (Model model : models) {
+            JSONObject textures = model.json().optJSONObject("textures");
+            if (textures == null) {
+                continue;
+            }
+            Set<String> faceVariables = model.rewritable() ? faceVariables(model.json()) : Set.of();
+            for (String variable : textures.keySet()) {
+                String texture = resolve(textures, variable);
+                if (texture == null) {
+                    continue;
+                }
+                if (faceVariables.contains(variable) && !variable.equals("particle")) {
+                    usable.add(texture);
+                } else {
+                    blocked.add(texture);
+                }
+            }
+        }
+
+        List<Sprite> sprites = new ArrayList<>();
+        for (String texture : usable.stream().sorted().collect(Collectors.toList())) {
+            String file = textureFile(texture);
+            // animated textures need the whole file to themselves
+            if (blocked.contains(texture) || !texture.startsWith(namespace + ":") || !output.exists(file) || output.exists(file + ".mcmeta")) {
+                continue;
+            }
+            try {
+                BufferedImage image = ImageIO.read(new ByteArrayInputStream(output.read(file)));
+                if (image == null || image.getWidth() > maxSize || image.getHeight() > maxSize) {
+                    continue;
+                }
+                // straight from the raster for gray sprites, getRGB would brighten them
+                int[] argb = Util.argb(image);
+                if (argb == null) {
+                    log.println("Can't stitch " + file + " without changing it (16 bit?), leaving it out");
+                    continue;
+                }
+                sprites.add(new Sprite(texture, image.getWidth(), image.getHeight(), argb));
+            } catch (IOException e) {
+                log.println("Error while reading sprite " + file + ": " + e.getClass().getName() + ": " + e.getMessage());
+            }
+        }
+        return sprites;
+    }
+
+    // every texture variable the faces use, including the ones they only reach through #references
+    private static Set<String> faceVariables(JSONObject model) {
+        Set<String> variables = new HashSet<>();
+        JSONObject textures = model.getJSONObject("textures");
+        JSONArray elements = model.getJSONArray("elements");
+        for (int i = 0; i < elements.length(); i++) {
+            JSONObject faces = elements.getJSONObject(i).optJSONObject("faces");
+            if (faces == null) {
+                continue;
+            }
+            for (String direction : faces.keySet()) {
+                String variable = faces.getJSONObject(direction).getString("texture").substring(1);
+                for (int depth = 0; depth < 16 && variables.add(variable); depth++) {
+                    String value = textures.optString(variable);
+                    if (!value.startsWith("#")) {
+                        break;
+                    }
+                    variable = value.substring(1);
+                }
+            }
+        }
+        return variables;
+    }
+
+    private boolean rewrite(JSONObject model, Map<String, String> locations, Map<String, Placement> placements, Map<String, Sheet> sheets) {
+        JSONObject textures = model.getJSONObject("textures");
+        boolean changed = false;
+        JSONArray elements = model.getJSONArray("elements");
+        for (int i = 0; i < elements.length(); i++) {
+            JSONObject element = elements.getJSONObject(i);
+            JSONObject faces = element.optJSONObject("faces");
+            if (faces == null) {
+                continue;
+            }
+            for (String direction : faces.keySet()) {
+                JSONObject face = faces.getJSONObject(direction);
+                String texture = resolve(textures, face.getString("texture").substring(1));
+                Placement placement = placements.get(texture);
+                if (placement == null) {
+                    continue;
+                }
+                Sheet sheet = sheets.get(texture);
+                double[] uv = uv(element, direction, face);
+                JSONArray mapped = new JSONArray();
+                for (int j = 0; j < 4; j++) {
+                    boolean horizontal = j % 2 == 0;
+                    double offset = horizontal ? placement.x() : placement.y();
+                    double size = horizontal ? placement.sprite().width() : placement.sprite().height();
+                    double sheetSize = horizontal ? sheet.width() : sheet.height();
+                    mapped.put((offset + uv[j] / 16 * size) * 16 / sheetSize);
+                }
+                face.put("uv", mapped);
+                changed = true;
+            }
+        }
+        // resolved all the way, #references might point at variables we didn't touch otherwise
+        for (String variable : new ArrayList<>(textures.keySet())) {
+            String location = locations.get(resolve(textures, variable));
+            if (location != null) {
+                textures.put(variable, location);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    // the uv of a face, or the one minecraft makes up from the element's position if there is none
+    private static double[] uv(JSONObject element, String direction, JSONObject face) {
+        JSONArray uv = face.optJSONArray("uv");
+        if (uv != null) {
+            return new double[]{uv.getDouble(0), uv.getDouble(1), uv.getDouble(2), uv.getDouble(3)};
+        }
+        JSONArray from = element.getJSONArray("from");
+        JSONArray to = element.getJSONArray("to");
+        double x1 = from.getDouble(0), y1 = from.getDouble(1), z1 = from.getDouble(2);
+        double x2 = to.getDouble(0), y2 = to.getDouble(1), z2 = to.getDouble(2);
+        return switch (direction) {
+            case "down" -> new double[]{x1, 16 - z2, x2, 16 - z1};
+            case "up" -> new double[]{x1, z1, x2, z2};
+            case "north" -> new double[]{16 - x2, 16 - y2, 16 - x1, 16 - y1};
+            case "south" -> new double[]{x1, 16 - y2, x2, 16 - y1};
+            case "west" -> new double[]{z1, 16 - y2, z2, 16 - y1};
+            case "east" -> new double[]{16 - z2, 16 - y2, 16 - z1, 16 - y1};
+            default -> throw new JSONException("Unknown face " + direction);
+        };
+    }
+
+    // follows #references, null if the variable isn't defined in this model
+    private static String resolve(JSONObject textures, String variable) {
+        for (int depth = 0; depth < 16; depth++) {
+            String value = textures.optString(variable, null);
+            if (value == null) {
+                return null;
+            }
+            if (!value.startsWith("#")) {
+                return value.contains(":") ? value : "minecraft:" + value;
+            }
+            variable = value.substring(1);
+        }
+        return null;
+    }
+
+    private static String modelFile(String location) {
+        String[] parts = location.contains(":") ? location.split(":", 2) : new String[]{"minecraft", location};
+        return "assets/" + parts[0] + "/models/" + parts[1] + ".json";
+    }
+
+    private static String textureFile(String location) {
+        String[] parts = location.split(":", 2);
+        return "assets/" + parts[0] + "/textures/" + parts[1] + ".png";
+    }
+
+    private byte[] draw(Sheet sheet) throws IOException {
+        BufferedImage image = new BufferedImage(sheet.width(), sheet.height(), BufferedImage.TYPE_INT_ARGB);
+        for (Placement placement : sheet.placements()) {
+            Sprite sprite = placement.sprite();
+            image.setRGB(placement.x(), placement.y(), sprite.width(), sprite.height(), sprite.argb(), 0, sprite.width());
+        }
+        byte[] optimized = optimizer != null ? optimizer.encode(image) : null;
+        return optimized != null ? optimized : Util.encodePng(image);
+    }
+
+    // skyline bottom-left packing, tallest sprites first, into as many sheets as it takes
+    static List<Sheet> pack(List<Sprite> sprites, int maxSize) {
+        List<Sprite> remaining = new ArrayList<>(sprites);
+        remaining.sort(Comparator.comparingInt(Sprite::height).reversed()
+                .thenComparing(Comparator.comparingInt(Sprite::width).reversed())
+                .thenComparing(Sprite::texture));
+        List<Sheet> sheets = new ArrayList<>();
+        while (!remaining.isEmpty()) {
+            long area = remaining.stream().mapToLong(s -> (long) s.width() * s.height()).sum();
+            int widest = remaining.stream().mapToInt(Sprite::width).max().orElse(1);
+            // aim for a square sheet, the height grows as needed
+            int width = Math.min(maxSize, powerOfTwo(Math.max(widest, (int) Math.ceil(Math.sqrt(area)))));
+            Skyline skyline = new Skyline(width, maxSize);
+            List<Placement> placements = new ArrayList<>();
+            List<Sprite> next = new ArrayList<>();
+            for (Sprite sprite : remaining) {
+                Placement placement = skyline.place(sprite);
+                if (placement != null) {
+                    placements.add(placement);
+                } else {
+                    next.add(sprite);
+                }
+            }
+            int usedWidth = placements.stream().mapToInt(p -> p.x() + p.sprite().width()).max().orElse(1);
+            int usedHeight = placements.stream().mapToInt(p -> p.y() + p.sprite().height()).max().orElse(1);
+            sheets.add(new Sheet(powerOfTwo(usedWidth), powerOfTwo(usedHeight), placements));
+            remaining = next;
+        }
+        return sheets;
+    }
+
+    private static int powerOfTwo(int value) {
+        return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+
+    // the top edge of everything placed so far, as a list of horizontal segments from left to right
+    private static class Skyline {
+
+        private record Segment(int x, int y, int width) {
+        }
+
+        private final int width;
+        private final int height;
+        private final List<Segment> segments = new ArrayList<>();
+
+        Skyline(int width, int height) {
+            this.width = width;
+            this.height = height;
+            segments.add(new Segment(0, 0, width));
+        }
+
+        Placement place(Sprite sprite) {
+            int bestIndex = -1;
+            int bestY = Integer.MAX_VALUE;
+            for (int i = 0; i < segments.size(); i++) {
+                int y = fits(i, sprite.width(), sprite.height());
+                if (y >= 0 && y < bestY) {
+                    bestIndex = i;
+                    bestY = y;
+                }
+            }
+            if (bestIndex < 0) {
+                return null;
+            }
+            int x = segments.get(bestIndex).x();
+            add(bestIndex, new Segment(x, bestY + sprite.height(), sprite.width()));
+            return new Placement(sprite, x, bestY);
+        }
+
+        // the y a sprite would sit at when its left edge is at segment index, -1 if it doesn't fit there
+        private int fits(int index, int spriteWidth, int spriteHeight) {
+            int x = segments.get(index).x();
+            if (x + spriteWidth > width) {
+                return -1;
+            }
+            int y = 0;
+            int left = spriteWidth;
+            for (int i = index; left > 0; i++) {
+                Segment segment = segments.get(i);
+                y = Math.max(y, segment.y());
+                if (y + spriteHeight > height) {
+                    return -1;
+                }
+                left -= segment.width();
+            }
+            return y;
+        }
+
+        private void add(int index, Segment segment) {
+            segments.add(index, segment);
+            int end = segment.x() + segment.width();
+            // cut away whatever is now covered by the new segment
+            for (int i = index + 1; i < segments.size(); ) {
+                Segment next = segments.get(i);
+                if (next.x() >= end) {
+                    break;
+                }
+                int nextEnd = next.x() + next.width();
+                if (nextEnd <= end) {
+                    segments.remove(i);
+                } else {
+                    segments.set(i, new Segment(end, next.y(), nextEnd - end));
+                    break;
+                }
+            }
+            // and merge neighbours at the same height
+            for (int i = 0; i < segments.size() - 1; ) {
+                Segment a = segments.get(i);
+                Segment b = segments.get(i + 1);
+                if (a.y() == b.y()) {
+                    segments.set(i, new Segment(a.x(), a.y(), a.width() + b.width()));
+                    segments.remove(i + 1);
+                } else {
+                    i++;
+                }
+            }
+        }
+    }
+}
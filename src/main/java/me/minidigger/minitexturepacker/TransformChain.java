@@ -0,0 +1,156 @@
+package me.minidigger.minitexturepacker;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+// All transforms that apply to one image. The image is decoded once, runs of channel transforms are folded into a
+// single lookup table and runs of pixel transforms share one loop, so adding an effect doesn't add another pass.
+class TransformChain {
+
+    static final TransformChain EMPTY = new TransformChain(List.of());
+
+    private interface Stage {
+    }
+
+    private record LookupStage(int[] table) implements Stage {
+    }
+
+    private record PixelStage(ImageTransform.Pixel[] transforms) implements Stage {
+    }
+
+    private record PassStage(ImageTransform.Pass transform) implements Stage {
+    }
+
+    private final List<ImageTransform> transforms;
+    private final List<Stage> stages = new ArrayList<>();
+
+    TransformChain(List<ImageTransform> transforms) {
+        this.transforms = List.copyOf(transforms);
+        int[] table = null;
+        List<ImageTransform.Pixel> pixel = new ArrayList<>();
+        for (ImageTransform transform : this.transforms) {
+            if (transform instanceof ImageTransform.Channel channel) {
+                table = fold(table, channel);
+                continue;
+            }
+            if (table != null) {
+                pixel.add(lookup(table));
+                table = null;
+            }
+            if (transform instanceof ImageTransform.Pixel p) {
+                pixel.add(p);
+            } else {
+                if (!pixel.isEmpty()) {
+                    stages.add(new PixelStage(pixel.toArray(ImageTransform.Pixel[]::new)));
+                    pixel.clear();
+                }
+                stages.add(new PassStage((ImageTransform.Pass) transform));
+            }
+        }
+        if (table != null) {
+            // nothing but channel transforms at the end, keep the table so we can use the in-place kernel
+            if (stages.isEmpty() && pixel.isEmpty()) {
+                stages.add(new LookupStage(table));
+            } else {
+                pixel.add(lookup(table));
+            }
+        }
+        if (!pixel.isEmpty()) {
+            stages.add(new PixelStage(pixel.toArray(ImageTransform.Pixel[]::new)));
+        }
+    }
+
+    TransformChain then(TransformChain other) {
+        if (other.isEmpty()) {
+            return this;
+        }
+        if (isEmpty()) {
+            return other;
+        }
+        List<ImageTransform> all = new ArrayList<>(transforms);
+        all.addAll(other.transforms);
+        return new TransformChain(all);
+    }
+
+    boolean isEmpty() {
+        return transforms.isEmpty();
+    }
+
+    String describe() {
+        return transforms.stream().map(ImageTransform::describe).collect(Collectors.joining("+"));
+    }
+
+    // null if the image can't be turned into 8 bit ARGB without changing it, like 16 bit pngs
+    BufferedImage apply(BufferedImage image) {
+        if (stages.size() == 1 && stages.get(0) instanceof LookupStage lookup) {
+            return BrightenKernel.apply(image, lookup.table());
+        }
+        ImageTransform.Pixels pixels = toPixels(image);
+        if (pixels == null) {
+            return null;
+        }
+        for (Stage stage : stages) {
+            if (stage instanceof PixelStage pixel) {
+                apply(pixels.argb(), pixel.transforms());
+            } else if (stage instanceof PassStage pass) {
+                pixels = pass.transform().apply(pixels);
+            }
+        }
+        return toImage(pixels, image.getColorModel().hasAlpha());
+    }
+
+    private static void apply(int[] argb, ImageTransform.Pixel[] chain) {
+        for (int i = 0; i < argb.length; i++) {
+            int pixel = argb[i];
+            for (ImageTransform.Pixel transform : chain) {
+                pixel = transform.apply(pixel);
+            }
+            argb[i] = pixel;
+        }
+    }
+
+    private static ImageTransform.Pixels toPixels(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] argb = Util.argb(image);
+        return argb != null ? new ImageTransform.Pixels(argb, width, height) : null;
+    }
+
+    private static BufferedImage toImage(ImageTransform.Pixels pixels, boolean alpha) {
+        BufferedImage image = new BufferedImage(pixels.width(), pixels.height(), alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        if (alpha) {
+            System.arraycopy(pixels.argb(), 0, data, 0, data.length);
+        } else {
+            for (int i = 0; i < data.length; i++) {
+                data[i] = pixels.argb()[i] & 0xFFFFFF;
+            }
+        }
+        return image;
+    }
+
+    private static int[] fold(int[] table, ImageTransform.Channel channel) {
+        int[] result = new int[256];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = channel.apply(table == null ? i : table[i]);
+        }
+        return result;
+    }
+
+    private static ImageTransform.Pixel lookup(int[] table) {
+        return new ImageTransform.Pixel() {
+            @Override
+            public int apply(int argb) {
+                return argb & 0xFF000000 | table[argb >> 16 & 0xFF] << 16 | table[argb >> 8 & 0xFF] << 8 | table[argb & 0xFF];
+            }
+
+            @Override
+            public String describe() {
+                return "lookup";
+            }
+        };
+    }
+}
@@ -1,18 +1,34 @@
 package me.minidigger.minitexturepacker;
 
+import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
-import java.awt.image.RescaleOp;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitResult;
 import java.nio.file.FileVisitor;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
-import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 import javax.imageio.ImageIO;
 
 public class Util {
+
+    private static final ThreadLocal<ByteArrayOutputStream> ENCODE_BUFFER = ThreadLocal.withInitial(() -> new ByteArrayOutputStream(16 * 1024));
+
+    static {
+        // ImageIO would otherwise buffer every stream in a temp file
+        ImageIO.setUseCache(false);
+    }
     static void deleteDir(Path path) throws IOException {
         Files.walkFileTree(path, new SimpleFileVisitor<>() {
 
@@ -30,49 +46,94 @@ public class Util {
         });
     }
 
-    static void copyAndBrighten(Path input, Path output, float factor) throws IOException {
-        // this is hardcoded to blocks but I dont give a shit right now
-        if (factor != 1 && input.toString().endsWith(".png") && input.toString().contains("blocks")) {
-            BufferedImage in = ImageIO.read(input.toFile());
-            if (in == null) {
-                System.out.println("Couldnt brighten " + input.toString() + ", just copy OG");
-                Files.copy(input, output, StandardCopyOption.REPLACE_EXISTING);
-                return;
-            }
-            BufferedImage out = brighten(in, factor, input.toString());
-            if (out == null) {
-                return;
+    // the folder below the namespace, like models or lang, or the file name for sounds.json and pack.mcmeta
+    static String category(String name) {
+        String[] parts = name.split("/");
+        if (parts.length >= 4 && parts[0].equals("assets")) {
+            return parts[2];
+        }
+        return parts[parts.length - 1];
+    }
+
+    static String sha1(Path file) throws IOException {
+        MessageDigest digest = sha1();
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
             }
-            ImageIO.write(out, "png", output.toFile());
-        } else {
-            Files.copy(input, output, StandardCopyOption.REPLACE_EXISTING);
         }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    static String sha1(String text) {
+        return HexFormat.of().formatHex(sha1().digest(text.getBytes(StandardCharsets.UTF_8)));
     }
 
-    private static BufferedImage brighten(BufferedImage image, float factor, String debugName) {
+    static MessageDigest sha1() {
         try {
-            float[] factors = new float[]{
-                    factor, factor, factor, 1f
-            };
-            float[] offsets = new float[]{
-                    0.0f, 0.0f, 0.0f, 0.0f
-            };
-            RescaleOp op = new RescaleOp(factors, offsets, null);
-            return op.filter(image, null);
-        } catch (IllegalArgumentException ex) {
-            try {
-                float[] factors = new float[]{
-                        1.4f, 1.4f, 1.4f
-                };
-                float[] offsets = new float[]{
-                        0.0f, 0.0f, 0.0f
-                };
-                RescaleOp op = new RescaleOp(factors, offsets, null);
-                return op.filter(image, null);
-            } catch (IllegalArgumentException ex2) {
-                System.out.println("Couldnt brighten " + debugName + ": " + ex2.getMessage());
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not supported", e);
+        }
+    }
+
+    // the transformed png, or null if ImageIO can't read the source or the chain can't work on it without changing it
+    static byte[] transform(byte[] input, TransformChain chain, PngOptimizer optimizer) throws IOException {
+        BufferedImage in = ImageIO.read(new ByteArrayInputStream(input));
+        if (in == null) {
+            return null;
+        }
+        if (chain.isEmpty()) {
+            // only here to be optimized, if we can't do that the source stays as it is
+            return optimizer != null ? optimizer.encode(in) : null;
+        }
+        BufferedImage out = chain.apply(in);
+        if (out == null) {
+            return null;
+        }
+        byte[] optimized = optimizer != null ? optimizer.encode(out) : null;
+        return optimized != null ? optimized : encodePng(out);
+    }
+
+    // the image as 8 bit ARGB, or null if that would change it. getRGB is only exact for sRGB with up to 8 bits, gray
+    // goes through a color conversion that brightens it, so we read gray and gray + alpha from the raster ourselves
+    static int[] argb(BufferedImage image) {
+        ColorModel model = image.getColorModel();
+        for (int c = 0; c < model.getNumComponents(); c++) {
+            if (model.getComponentSize(c) > 8) {
                 return null;
             }
         }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        ColorSpace space = model.getColorSpace();
+        if (space.isCS_sRGB()) {
+            return image.getRGB(0, 0, width, height, null, 0, width);
+        }
+        if (space.getType() != ColorSpace.TYPE_GRAY || !(model instanceof ComponentColorModel) || model.isAlphaPremultiplied()) {
+            return null;
+        }
+        Raster raster = image.getRaster();
+        int[] gray = raster.getSamples(0, 0, width, height, 0, (int[]) null);
+        int grayMax = (1 << model.getComponentSize(0)) - 1;
+        int[] alpha = model.hasAlpha() ? raster.getSamples(0, 0, width, height, 1, (int[]) null) : null;
+        int alphaMax = alpha != null ? (1 << model.getComponentSize(1)) - 1 : 1;
+        int[] argb = new int[width * height];
+        for (int i = 0; i < argb.length; i++) {
+            // 1, 2 and 4 bit gray scale up to 8 bits without rounding
+            int value = gray[i] * 255 / grayMax;
+            int a = alpha != null ? alpha[i] * 255 / alphaMax : 0xFF;
+            argb[i] = a << 24 | value << 16 | value << 8 | value;
+        }
+        return argb;
+    }
+
+    static byte[] encodePng(BufferedImage image) throws IOException {
+        ByteArrayOutputStream bytes = ENCODE_BUFFER.get();
+        bytes.reset();
+        ImageIO.write(image, "png", bytes);
+        return bytes.toByteArray();
     }
 }
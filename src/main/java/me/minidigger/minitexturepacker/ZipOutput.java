@@ -0,0 +1,299 @@
+package me.minidigger.minitexturepacker;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Writes the pack as a single zip. Entries are compressed by whatever thread hands them in and go straight to a spool
+// file next to the zip, so only their names and offsets stay in memory. On close they are copied into the zip sorted by
+// name and with a fixed timestamp, so the same input always gives the same bytes and the same SHA-1. Entries that were
+// overwritten or deleted in between are simply not copied. Packs with more than 65535 entries or over 4 GiB get zip64
+// records.
+public class ZipOutput implements PackOutput {
+
+    static final int STORED = 0;
+    static final int DEFLATED = 8;
+
+    // 1980-01-01 00:00, the earliest date a zip can hold
+    private static final int DOS_TIME = 0;
+    private static final int DOS_DATE = (1 << 5) | 1;
+    private static final long ZIP64 = 0xFFFFFFFFL;
+
+    record Entry(int method, long crc, long size, byte[] data) {
+    }
+
+    // an entry in the spool file
+    private record Spooled(int method, long crc, long size, long compressedSize, long offset) {
+    }
+
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[64 * 1024]);
+
+    private final Path file;
+    private final Path spoolFile;
+    private final FileChannel spool;
+    // where the next entry goes in the spool, every writer takes its part and writes it on its own
+    private final AtomicLong spoolEnd = new AtomicLong();
+    private final Map<String, Spooled> entries = new ConcurrentSkipListMap<>();
+    private String sha1;
+
+    public ZipOutput(Path file) throws IOException {
+        this.file = file;
+        this.spoolFile = file.resolveSibling(file.getFileName() + ".tmp");
+        this.spool = FileChannel.open(spoolFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    public String sha1() {
+        return sha1;
+    }
+
+    @Override
+    public void copy(Path source, String name) throws IOException {
+        write(name, Files.readAllBytes(source));
+    }
+
+    @Override
+    public void write(String name, byte[] data) throws IOException {
+        put(name, compress(name, data));
+    }
+
+    // for entries that are already compressed, see PackArchive
+    void put(String name, Entry entry) throws IOException {
+        long offset = spoolEnd.getAndAdd(entry.data().length);
+        ByteBuffer buffer = ByteBuffer.wrap(entry.data());
+        while (buffer.hasRemaining()) {
+            spool.write(buffer, offset + buffer.position());
+        }
+        entries.put(name, new Spooled(entry.method(), entry.crc(), entry.size(), entry.data().length, offset));
+    }
+
+    @Override
+    public boolean exists(String name) {
+        return entries.containsKey(name);
+    }
+
+    @Override
+    public byte[] read(String name) throws IOException {
+        Spooled entry = entries.get(name);
+        if (entry == null) {
+            throw new IOException("No entry " + name + " in " + file);
+        }
+        byte[] compressed = new byte[Math.toIntExact(entry.compressedSize())];
+        ByteBuffer buffer = ByteBuffer.wrap(compressed);
+        while (buffer.hasRemaining()) {
+            if (spool.read(buffer, entry.offset() + buffer.position()) < 0) {
+                throw new IOException("Spool file " + spoolFile + " is missing the end of " + name);
+            }
+        }
+        if (entry.method() == STORED) {
+            return compressed;
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            byte[] data = new byte[Math.toIntExact(entry.size())];
+            int read = 0;
+            while (read < data.length && !inflater.finished()) {
+                read += inflater.inflate(data, read, data.length - read);
+            }
+            return data;
+        } catch (DataFormatException e) {
+            throw new IOException("Broken entry " + name + " in " + file, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    @Override
+    public void delete(String name) {
+        entries.remove(name);
+    }
+
+    static Entry compress(String name, byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        // pngs and oggs are compressed already, deflating them again just burns cpu
+        if (name.endsWith(".png") || name.endsWith(".ogg")) {
+            return new Entry(STORED, crc.getValue(), data.length, data);
+        }
+        Deflater deflater = DEFLATER.get();
+        byte[] buffer = BUFFER.get();
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+        while (!deflater.finished()) {
+            int length = deflater.deflate(buffer);
+            out.write(buffer, 0, length);
+        }
+        if (out.size() >= data.length) {
+            return new Entry(STORED, crc.getValue(), data.length, data);
+        }
+        return new Entry(DEFLATED, crc.getValue(), data.length, out.toByteArray());
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (spool) {
+            System.out.print("Writing " + entries.size() + " entries to " + file + "... ");
+            MessageDigest digest = Util.sha1();
+            List<Long> offsets = new ArrayList<>(entries.size());
+            try (CountingOutputStream counter = new CountingOutputStream(new DigestOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16), digest));
+                 DataOutputStream out = new DataOutputStream(counter)) {
+                byte[] buffer = new byte[1 << 16];
+                for (var e : entries.entrySet()) {
+                    offsets.add(counter.count);
+                    byte[] name = e.getKey().getBytes(StandardCharsets.UTF_8);
+                    Spooled entry = e.getValue();
+                    writeInt(out, 0x04034b50);
+                    writeShort(out, 20);
+                    writeShort(out, 0x0800);
+                    writeShort(out, entry.method());
+                    writeShort(out, DOS_TIME);
+                    writeShort(out, DOS_DATE);
+                    writeInt(out, entry.crc());
+                    writeInt(out, entry.compressedSize());
+                    writeInt(out, entry.size());
+                    writeShort(out, name.length);
+                    writeShort(out, 0);
+                    out.write(name);
+                    transfer(entry, out, buffer);
+                }
+                long centralStart = counter.count;
+                int i = 0;
+                for (var e : entries.entrySet()) {
+                    byte[] name = e.getKey().getBytes(StandardCharsets.UTF_8);
+                    Spooled entry = e.getValue();
+                    long offset = offsets.get(i++);
+                    // entries are never 4 GiB themselves, only where they start can need zip64
+                    boolean zip64 = offset >= ZIP64;
+                    writeInt(out, 0x02014b50);
+                    writeShort(out, zip64 ? 45 : 20);
+                    writeShort(out, zip64 ? 45 : 20);
+                    writeShort(out, 0x0800);
+                    writeShort(out, entry.method());
+                    writeShort(out, DOS_TIME);
+                    writeShort(out, DOS_DATE);
+                    writeInt(out, entry.crc());
+                    writeInt(out, entry.compressedSize());
+                    writeInt(out, entry.size());
+                    writeShort(out, name.length);
+                    writeShort(out, zip64 ? 12 : 0);
+                    writeShort(out, 0);
+                    writeShort(out, 0);
+                    writeShort(out, 0);
+                    writeInt(out, 0);
+                    writeInt(out, zip64 ? ZIP64 : offset);
+                    out.write(name);
+                    if (zip64) {
+                        writeShort(out, 0x0001);
+                        writeShort(out, 8);
+                        writeLong(out, offset);
+                    }
+                }
+                long centralEnd = counter.count;
+                long centralSize = centralEnd - centralStart;
+                int count = entries.size();
+                boolean zip64 = count >= 0xFFFF || centralStart >= ZIP64 || centralSize >= ZIP64;
+                if (zip64) {
+                    writeInt(out, 0x06064b50);
+                    writeLong(out, 44);
+                    writeShort(out, 45);
+                    writeShort(out, 45);
+                    writeInt(out, 0);
+                    writeInt(out, 0);
+                    writeLong(out, count);
+                    writeLong(out, count);
+                    writeLong(out, centralSize);
+                    writeLong(out, centralStart);
+                    writeInt(out, 0x07064b50);
+                    writeInt(out, 0);
+                    writeLong(out, centralEnd);
+                    writeInt(out, 1);
+                }
+                writeInt(out, 0x06054b50);
+                writeShort(out, 0);
+                writeShort(out, 0);
+                writeShort(out, Math.min(count, 0xFFFF));
+                writeShort(out, Math.min(count, 0xFFFF));
+                writeInt(out, Math.min(centralSize, ZIP64));
+                writeInt(out, Math.min(centralStart, ZIP64));
+                writeShort(out, 0);
+            }
+            sha1 = HexFormat.of().formatHex(digest.digest());
+            Files.writeString(file.resolveSibling(file.getFileName() + ".sha1"), sha1);
+            System.out.println("Done! SHA-1: " + sha1);
+        } finally {
+            Files.deleteIfExists(spoolFile);
+        }
+    }
+
+    private void transfer(Spooled entry, OutputStream out, byte[] buffer) throws IOException {
+        long position = entry.offset();
+        long end = position + entry.compressedSize();
+        while (position < end) {
+            ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, end - position));
+            int read = spool.read(chunk, position);
+            if (read < 0) {
+                throw new IOException("Spool file " + spoolFile + " ended early");
+            }
+            out.write(buffer, 0, read);
+            position += read;
+        }
+    }
+
+    // zip is little endian, DataOutputStream is not
+    private static void writeShort(DataOutputStream out, int value) throws IOException {
+        out.writeShort(Short.reverseBytes((short) value));
+    }
+
+    private static void writeInt(DataOutputStream out, long value) throws IOException {
+        out.writeInt(Integer.reverseBytes((int) value));
+    }
+
+    private static void writeLong(DataOutputStream out, long value) throws IOException {
+        out.writeLong(Long.reverseBytes(value));
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}